@@ -1,51 +1,177 @@
 package io.compgen.common;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
-import java.util.Arrays;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.zip.GZIPInputStream;
 
+import io.compgen.common.io.BlockGzipInputStream;
+import io.compgen.common.io.MappedFile;
+import io.compgen.common.io.PeekableInputStream;
+import io.compgen.common.io.ReadAheadInputStream;
+import io.compgen.common.io.SingleByteReader;
 import io.compgen.common.progress.FileChannelStats;
 import io.compgen.common.progress.ProgressMessage;
+import io.compgen.common.progress.ProgressStats;
 import io.compgen.common.progress.ProgressUtils;
 
 public abstract class AbstractLineReader<T> implements Iterable<T> {
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int GZIP_BUFFER_SIZE = 64*1024;
+
     final private Reader reader;
     final protected FileChannel channel;
 	final protected String name;
+	// true for uncompressed files (which can be read in parallel by byte ranges)
+	final private boolean splittable;
+	final protected Charset charset;
 
 	private BufferedReader iteratorReader = null;
 	private boolean closed = false;
 
+	private int threads = 1;
+	private boolean ordered = true;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private ExecutorService pool = null;
+
+	private boolean mapped = false;
+	private FollowOptions follow = null;
+	// progress for the mapped/follow readers (which don't move the channel position)
+	private ProgressStats iteratorStats = null;
+
 	public AbstractLineReader(String filename) throws IOException {
+		this(filename, Charset.defaultCharset(), 1);
+	}
+
+	public AbstractLineReader(String filename, Charset charset) throws IOException {
+		this(filename, charset, 1);
+	}
+
+	public AbstractLineReader(String filename, int decompressThreads) throws IOException {
+		this(filename, Charset.defaultCharset(), decompressThreads);
+	}
+
+	/**
+	 * @param filename - file to read ("-" for stdin). Gzip compressed files are detected automatically.
+	 * @param charset - charset of the file (US-ASCII and ISO-8859-1 are decoded without a CharsetDecoder)
+	 * @param decompressThreads - if the file is block-gzip compressed (BGZF), decompress blocks on this many threads
+	 * @throws IOException
+	 */
+	public AbstractLineReader(String filename, Charset charset, int decompressThreads) throws IOException {
+		InputStream in;
+		this.charset = charset;
         if (filename.equals("-")) {
-            this.reader = new InputStreamReader(System.in);
+            in = System.in;
             this.channel = null;
             this.name = "<stdin>";
         } else {
+            FileInputStream fis = new FileInputStream(filename);
+            in = fis;
+            this.channel = fis.getChannel();
         	this.name = filename;
+        }
 
-        	FileInputStream peek = new FileInputStream(filename);
-            byte[] magic = new byte[2];
-            peek.read(magic);
-            peek.close();
+        // check the magic bytes without opening the file twice (or losing bytes from stdin)
+        PeekableInputStream peek = new PeekableInputStream(in);
+        byte[] magic = peek.peekUpTo(BlockGzipInputStream.MAGIC_SIZE);
+        if (isGzip(magic)) {
+            this.reader = SingleByteReader.newReader(gunzip(peek, magic, decompressThreads), charset);
+            this.splittable = false;
+        } else {
+            this.reader = SingleByteReader.newReader(peek, charset);
+            this.splittable = (channel != null);
+        }
+    }
 
-            FileInputStream fis = new FileInputStream(filename);
-            this.channel = fis.getChannel();
+	/**
+	 * Read from an already opened (uncompressed) file, starting at the channel's current
+	 * position. See openAtOffset() and openAtLine().
+	 */
+	protected AbstractLineReader(FileChannel channel, String name, Charset charset) {
+		this(Channels.newInputStream(channel), channel, name, charset);
+	}
 
-            if (Arrays.equals(magic, new byte[] {0x1f, (byte) 0x8B})) {
-            	GZIPInputStream gzis = new GZIPInputStream(fis);
-                this.reader = new InputStreamReader(gzis);
-            } else {
-                this.reader = new InputStreamReader(fis);
-            }
+	/**
+	 * Open an uncompressed file at a byte offset. If offset isn't the start of a line, the
+	 * channel is moved to the start of the next line.
+	 */
+	protected static FileChannel openAtOffset(String filename, long offset) throws IOException {
+		return seek(filename, null, offset);
+	}
+
+	/**
+	 * Open an uncompressed file at a line (0-based). The index is used to find the line
+	 * without reading the whole file (see LineIndex).
+	 */
+	protected static FileChannel openAtLine(String filename, LineIndex index, long line) throws IOException {
+		if (index == null) {
+			throw new IllegalArgumentException("A LineIndex is required to seek to a line");
+		}
+		return seek(filename, index, line);
+	}
+
+	/**
+	 * Open a file and move to the start of a line (by line number if there is an index,
+	 * otherwise by byte offset).
+	 */
+	private static FileChannel seek(String filename, LineIndex index, long pos) throws IOException {
+		FileChannel channel = FileChannel.open(new File(filename).toPath(), StandardOpenOption.READ);
+		try {
+			if (LineIndex.isGzip(channel)) {
+				throw new IOException("Can only seek in uncompressed files: "+filename);
+			}
+			if (index != null) {
+				channel.position(index.findLine(channel, pos));
+			} else {
+				channel.position(LineIndex.nextLine(channel, pos));
+			}
+			return channel;
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+    static boolean isGzip(byte[] magic) {
+        return magic.length >= 2 && magic[0] == 0x1f && magic[1] == (byte) 0x8B;
+    }
+
+    /**
+     * Decompress a gzip stream on a background thread, so parsing and inflating can overlap.
+     * Block-gzip streams can be decompressed on multiple threads. Multi-member gzip files
+     * are read completely (this needs in.available() to work, which PeekableInputStream does).
+     */
+    static InputStream gunzip(InputStream in, byte[] magic, int threads) throws IOException {
+        if (threads > 1 && BlockGzipInputStream.isBlockGzip(magic)) {
+            return new BlockGzipInputStream(in, threads);
         }
+        return new ReadAheadInputStream(new GZIPInputStream(in, GZIP_BUFFER_SIZE));
     }
 
     public AbstractLineReader(InputStream is) {
@@ -53,9 +179,15 @@ public abstract class AbstractLineReader<T> implements Iterable<T> {
     }
     
     public AbstractLineReader(InputStream is, FileChannel channel, String name) {
-        this.reader = new InputStreamReader(is);
+        this(is, channel, name, Charset.defaultCharset());
+    }
+
+    public AbstractLineReader(InputStream is, FileChannel channel, String name, Charset charset) {
+        this.reader = SingleByteReader.newReader(is, charset);
+        this.charset = charset;
         this.channel = channel;
         this.name = name;
+        this.splittable = false;
     }
     
     public void close() throws IOException {
@@ -64,9 +196,87 @@ public abstract class AbstractLineReader<T> implements Iterable<T> {
     	} else {
     		this.reader.close();
     	}
+    	if (this.pool != null) {
+    		this.pool.shutdownNow();
+    	}
     	this.closed  = true;
     }
+
+    /**
+     * Call convertLine on multiple threads. Lines are read in batches on the iterating thread,
+     * and each batch is converted by a worker pool. Results are returned in the original order.
+     * 
+     * Note: convertLine must be thread-safe to use this.
+     * 
+     * @param threads - number of worker threads (1 to disable)
+     */
+    public void setParallel(int threads) {
+    	setParallel(threads, true, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param threads - number of worker threads (1 to disable)
+     * @param ordered - if false, batches are returned as soon as they are converted (which may not be the original order)
+     * @param batchSize - number of lines in each batch
+     */
+    public void setParallel(int threads, boolean ordered, int batchSize) {
+    	this.threads = threads;
+    	this.ordered = ordered;
+    	this.batchSize = batchSize;
+    }
     
+    /**
+     * Read the file by memory-mapping it, instead of through a Reader. Lines are found and
+     * decoded directly from the mapped file, which saves copying the data through the
+     * Reader buffers. This works best when the file is already in the page cache.
+     * 
+     * This is only supported for uncompressed files (opened by name).
+     */
+    public void setMemoryMapped(boolean mapped) {
+    	if (mapped && !splittable) {
+    		throw new UnsupportedOperationException("Only uncompressed files can be memory-mapped");
+    	}
+    	this.mapped = mapped;
+    }
+
+    /**
+     * Keep reading a file that is still being written. At the end of the file, the iterator
+     * waits for more lines until one of the stop conditions in options is met (see
+     * FollowOptions). Lines are only returned once they are complete. This takes precedence
+     * over setMemoryMapped().
+     * 
+     * This is only supported for uncompressed files (opened by name).
+     * 
+     * @param options - when to stop (null to disable)
+     */
+    public void setFollow(FollowOptions options) {
+    	if (options != null && !splittable) {
+    		throw new UnsupportedOperationException("Only uncompressed files can be followed");
+    	}
+    	this.follow = options;
+    }
+
+    /**
+     * The BufferedReader for iterating over the lines (or the mapped/followed file, if set).
+     */
+    private BufferedReader openIteratorReader() {
+    	if (follow != null) {
+    		FollowLineReader followReader = new FollowLineReader(channel, reader, charset, follow);
+    		iteratorStats = followReader;
+    		return followReader;
+    	}
+    	if (!mapped) {
+    		return new BufferedReader(reader);
+    	}
+    	try {
+    		MappedLineReader mappedReader = new MappedLineReader(new MappedFile(name), reader, charset);
+    		iteratorStats = mappedReader;
+    		return mappedReader;
+    	} catch (IOException e) {
+    		throw new UncheckedIOException(e);
+    	}
+    }
+
     public boolean isClosed() { 
     	return closed;
     }
@@ -75,7 +285,10 @@ public abstract class AbstractLineReader<T> implements Iterable<T> {
     
     @Override
     public Iterator<T> iterator() {
-    	iteratorReader = new BufferedReader(reader);
+    	iteratorReader = openIteratorReader();
+    	if (threads > 1) {
+    		return parallelIterator();
+    	}
         return new Iterator<T>() {
             String next = readnext();
             
@@ -123,10 +336,220 @@ public abstract class AbstractLineReader<T> implements Iterable<T> {
         };
     }
 
+    /**
+     * Read lines in batches on this thread, and convert them on a worker pool. At most
+     * (threads * 4) batches are in flight at once.
+     */
+    private Iterator<T> parallelIterator() {
+    	// a new iterator replaces the old one (they share the same reader)
+    	if (pool != null) {
+    		pool.shutdownNow();
+    	}
+    	pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "AbstractLineReader");
+				t.setDaemon(true);
+				return t;
+			}});
+    	final ExecutorService pool = this.pool;
+    	final CompletionService<List<T>> completion = new ExecutorCompletionService<List<T>>(pool);
+    	final int maxPending = threads * 4;
+
+        return new Iterator<T>() {
+        	final Deque<Future<List<T>>> pending = new ArrayDeque<Future<List<T>>>();
+        	int outstanding = 0;
+        	boolean eof = false;
+        	// a read error, thrown by next() after the lines before it are returned
+        	IOException error = null;
+        	Iterator<T> batch = null;
+
+        	private List<String> readBatch() {
+        		List<String> lines = new ArrayList<String>(batchSize);
+        		try {
+        			String line;
+        			while (lines.size() < batchSize && (line = iteratorReader.readLine()) != null) {
+        				lines.add(line);
+        			}
+        		} catch (IOException e) {
+        			error = e;
+        		}
+        		return lines;
+        	}
+
+        	private void fill() {
+        		while (!eof && outstanding < maxPending) {
+        			final List<String> lines = readBatch();
+        			if (lines.size() < batchSize) {
+        				eof = true;
+        				try {
+        					iteratorReader.close();
+        				} catch (IOException e) {
+        				}
+        			}
+        			if (lines.isEmpty()) {
+        				return;
+        			}
+        			Callable<List<T>> task = new Callable<List<T>>() {
+						@Override
+						public List<T> call() throws Exception {
+							List<T> out = new ArrayList<T>(lines.size());
+							for (String line: lines) {
+								T val = convertLine(line);
+								if (val != null) {
+									out.add(val);
+								}
+							}
+							return out;
+						}};
+        			if (ordered) {
+        				pending.add(pool.submit(task));
+        			} else {
+        				completion.submit(task);
+        			}
+        			outstanding++;
+        		}
+        	}
+
+        	private List<T> take() {
+        		try {
+        			Future<List<T>> future = ordered ? pending.poll() : completion.take();
+        			outstanding--;
+        			return future.get();
+        		} catch (InterruptedException e) {
+        			throw new RuntimeException(e);
+        		} catch (ExecutionException e) {
+        			if (e.getCause() instanceof RuntimeException) {
+        				throw (RuntimeException) e.getCause();
+        			}
+        			throw new RuntimeException(e.getCause());
+        		}
+        	}
+
+            @Override
+            public boolean hasNext() {
+            	while (batch == null || !batch.hasNext()) {
+            		fill();
+            		if (outstanding == 0) {
+            			pool.shutdown();
+            			return error != null;
+            		}
+            		batch = take().iterator();
+            	}
+            	return true;
+            }
+
+            @Override
+            public T next() {
+            	if (!hasNext()) {
+            		throw new NoSuchElementException();
+            	}
+            	if (batch == null || !batch.hasNext()) {
+            		IOException e = error;
+            		error = null;
+            		throw new UncheckedIOException(e);
+            	}
+            	return batch.next();
+            }
+
+            @Override
+            public void remove() {
+            }
+        };
+    }
+
+    /**
+     * A Stream of the converted lines. For parallel streams, lines are read in batches on
+     * one thread, and the batches are converted and processed on the others (so convertLine
+     * must be thread-safe). Closing the stream closes this reader.
+     */
+    public Stream<T> stream() {
+    	return lineStream(new Function<String, T>() {
+			@Override
+			public T apply(String line) {
+				return convertLine(line);
+			}});
+    }
+
+    /**
+     * A Stream of the raw lines (without calling convertLine). Closing the stream closes
+     * this reader.
+     */
+    public Stream<String> lines() {
+    	return lineStream(new Function<String, String>() {
+			@Override
+			public String apply(String line) {
+				return line;
+			}});
+    }
+
+    private <V> Stream<V> lineStream(Function<String, V> converter) {
+    	iteratorReader = openIteratorReader();
+    	return StreamSupport.stream(new LineBatchSpliterator<V>(iteratorReader, converter), false).onClose(closeHandler());
+    }
+
+    private Runnable closeHandler() {
+    	return new Runnable() {
+			@Override
+			public void run() {
+				try {
+					close();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}};
+    }
+
+    /**
+     * Returns a Spliterator that reads the file by byte ranges (aligned to line boundaries).
+     * Ranges are split as needed, so a parallel Stream will read the file on many threads.
+     * Each range reads from the file with positional reads, independently of this reader.
+     * 
+     * This is only supported for uncompressed files (opened by name). Lines may be
+     * converted on multiple threads, so convertLine must be thread-safe.
+     * 
+     * If the charset isn't ASCII-compatible (UTF-16, UTF-32), the file can't be split by
+     * bytes, so the lines are read in order instead (in batches, see LineBatchSpliterator).
+     */
+    public Spliterator<T> rangeSpliterator() {
+    	if (!splittable) {
+    		throw new UnsupportedOperationException("Only uncompressed files can be split into byte ranges");
+    	}
+    	if (!FileRangeSpliterator.isSupported(charset)) {
+    		iteratorReader = openIteratorReader();
+    		return new LineBatchSpliterator<T>(iteratorReader, new Function<String, T>() {
+    			@Override
+    			public T apply(String line) {
+    				return convertLine(line);
+    			}});
+    	}
+    	try {
+    		return new FileRangeSpliterator<T>(channel, charset, new Function<String, T>() {
+    			@Override
+    			public T apply(String line) {
+    				return convertLine(line);
+    			}});
+    	} catch (IOException e) {
+    		throw new UncheckedIOException(e);
+    	}
+    }
+
+    /**
+     * A parallel Stream over the lines of the file (see rangeSpliterator()). Closing the
+     * stream closes this reader.
+     */
+    public Stream<T> parallelStream() {
+    	return StreamSupport.stream(rangeSpliterator(), true).onClose(closeHandler());
+    }
+
     public Iterator<T> progress() {
     	return progress(null);
     }
     public Iterator<T> progress(ProgressMessage<T> msg) {
-    	return ProgressUtils.getIterator(name, iterator(), new FileChannelStats(channel), msg);
+    	Iterator<T> it = iterator();
+    	if (iteratorStats != null) {
+    		return ProgressUtils.getIterator(name, it, iteratorStats, msg);
+    	}
+    	return ProgressUtils.getIterator(name, it, new FileChannelStats(channel), msg);
     }
 }
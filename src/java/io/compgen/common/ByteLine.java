@@ -0,0 +1,167 @@
+package io.compgen.common;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A line of text as a view into a byte buffer (see ByteLineReader). This lets lines be
+ * processed without decoding them to Strings.
+ *
+ * As a CharSequence, each byte is one character (ASCII/Latin-1). Use toString(charset) if
+ * the line has multi-byte characters.
+ *
+ * ByteLines are reused by the reader, so the contents are only valid until the next line is
+ * read. Use copy() or toString() to keep a line.
+ */
+public class ByteLine implements CharSequence, Comparable<ByteLine> {
+    private byte[] buf;
+    private int offset;
+    private int length;
+
+    public ByteLine() {
+        this(new byte[0], 0, 0);
+    }
+
+    public ByteLine(byte[] buf, int offset, int length) {
+        set(buf, offset, length);
+    }
+
+    void set(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * @return the underlying buffer (the line starts at offset())
+     */
+    public byte[] buffer() {
+        return buf;
+    }
+
+    public int offset() {
+        return offset;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    public byte byteAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index: "+index+", length: "+length);
+        }
+        return buf[offset + index];
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (byteAt(index) & 0xFF);
+    }
+
+    /**
+     * Returns a view of part of this line (which shares the same buffer).
+     */
+    @Override
+    public ByteLine subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start: "+start+", end: "+end+", length: "+length);
+        }
+        return new ByteLine(buf, offset + start, end - start);
+    }
+
+    /**
+     * @return the index of the first b (at or after from), or -1
+     */
+    public int indexOf(byte b, int from) {
+        for (int i=Math.max(from, 0); i<length; i++) {
+            if (buf[offset + i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean startsWith(String prefix) {
+        if (prefix.length() > length) {
+            return false;
+        }
+        for (int i=0; i<prefix.length(); i++) {
+            if ((buf[offset + i] & 0xFF) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean contentEquals(CharSequence s) {
+        if (s.length() != length) {
+            return false;
+        }
+        for (int i=0; i<length; i++) {
+            if ((buf[offset + i] & 0xFF) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a copy of the bytes in this line
+     */
+    public byte[] getBytes() {
+        return Arrays.copyOfRange(buf, offset, offset + length);
+    }
+
+    /**
+     * @return a copy of this line that doesn't share the reader's buffer
+     */
+    public ByteLine copy() {
+        return new ByteLine(getBytes(), 0, length);
+    }
+
+    public String toString(Charset charset) {
+        return new String(buf, offset, length, charset);
+    }
+
+    /**
+     * Decodes the line (one char per byte, same as charAt())
+     */
+    @Override
+    public String toString() {
+        return new String(buf, offset, length, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public int compareTo(ByteLine o) {
+        int n = Math.min(length, o.length);
+        for (int i=0; i<n; i++) {
+            int a = buf[offset + i] & 0xFF;
+            int b = o.buf[o.offset + i] & 0xFF;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return length - o.length;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ByteLine)) {
+            return false;
+        }
+        ByteLine o = (ByteLine) obj;
+        return length == o.length && compareTo(o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 1;
+        for (int i=0; i<length; i++) {
+            h = 31 * h + buf[offset + i];
+        }
+        return h;
+    }
+}
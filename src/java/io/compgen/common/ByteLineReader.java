@@ -0,0 +1,255 @@
+package io.compgen.common;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import io.compgen.common.io.BlockGzipInputStream;
+import io.compgen.common.io.PeekableInputStream;
+import io.compgen.common.progress.FileChannelStats;
+import io.compgen.common.progress.ProgressMessage;
+import io.compgen.common.progress.ProgressUtils;
+
+/**
+ * Reads lines from a file (or stream) as bytes, without decoding them to Strings. This is
+ * much faster than AbstractLineReader for ASCII inputs (FASTQ, SAM, BED, tab-delimited, etc).
+ *
+ * Data is read into a large buffer and scanned for newlines eight bytes at a time. Each line
+ * is returned as a ByteLine, which is a view into the buffer. The same ByteLine object is
+ * reused for every line, so it is only valid until the next line is read. Use toString() or
+ * copy() to keep a line.
+ *
+ * Lines end with '\n' or "\r\n" (the line ending isn't included). Gzip compressed files are
+ * detected automatically.
+ */
+public class ByteLineReader implements Iterable<ByteLine> {
+    public static final int DEFAULT_BUFFERSIZE = 1024*1024;
+
+    private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    final private InputStream in;
+    final protected FileChannel channel;
+    final protected String name;
+
+    private byte[] buf;
+    private ByteBuffer words;
+    private int start = 0;
+    private int end = 0;
+    private boolean eof = false;
+    private boolean closed = false;
+
+    private final ByteLine line = new ByteLine();
+
+    public ByteLineReader(String filename) throws IOException {
+        this(filename, DEFAULT_BUFFERSIZE);
+    }
+
+    public ByteLineReader(String filename, int bufferSize) throws IOException {
+        this(filename, bufferSize, 1);
+    }
+
+    /**
+     * @param filename - file to read ("-" for stdin)
+     * @param bufferSize - initial buffer size (the buffer grows for longer lines)
+     * @param decompressThreads - if the file is block-gzip compressed (BGZF), decompress blocks on this many threads
+     */
+    public ByteLineReader(String filename, int bufferSize, int decompressThreads) throws IOException {
+        if (filename.equals("-")) {
+            this.in = detectGzip(System.in, decompressThreads);
+            this.channel = null;
+            this.name = "<stdin>";
+        } else {
+            FileInputStream fis = new FileInputStream(filename);
+            this.in = detectGzip(fis, decompressThreads);
+            this.channel = fis.getChannel();
+            this.name = filename;
+        }
+        setBuffer(new byte[bufferSize]);
+    }
+
+    public ByteLineReader(InputStream is) {
+        this(is, null, null);
+    }
+
+    public ByteLineReader(InputStream is, FileChannel channel, String name) {
+        this.in = is;
+        this.channel = channel;
+        this.name = name;
+        setBuffer(new byte[DEFAULT_BUFFERSIZE]);
+    }
+
+    /**
+     * If the stream starts with the gzip magic bytes, decompress it (on a background thread).
+     */
+    private static InputStream detectGzip(InputStream is, int decompressThreads) throws IOException {
+        PeekableInputStream peek = new PeekableInputStream(is);
+        byte[] magic = peek.peekUpTo(BlockGzipInputStream.MAGIC_SIZE);
+        if (AbstractLineReader.isGzip(magic)) {
+            return AbstractLineReader.gunzip(peek, magic, decompressThreads);
+        }
+        return peek;
+    }
+
+    private void setBuffer(byte[] buf) {
+        this.buf = buf;
+        this.words = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Find the next '\n' in buf between from and end, checking a word (8 bytes) at a time.
+     * @return the index of the newline, or -1
+     */
+    private int findNewline(int from) {
+        int i = from;
+        while (i + 8 <= end) {
+            long x = words.getLong(i) ^ NEWLINES;
+            long found = (x - LOW_BITS) & ~x & HIGH_BITS;
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+            i += 8;
+        }
+        while (i < end) {
+            if (buf[i] == '\n') {
+                return i;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * Move unread data to the start of the buffer (growing it if it is full) and read more.
+     * @return false if there is no more data to read
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (start > 0) {
+            System.arraycopy(buf, start, buf, 0, end - start);
+            end -= start;
+            start = 0;
+        } else if (end == buf.length) {
+            // one line is longer than the buffer
+            setBuffer(Arrays.copyOf(buf, buf.length * 2));
+        }
+
+        int n = in.read(buf, end, buf.length - end);
+        if (n == -1) {
+            eof = true;
+            return false;
+        }
+        end += n;
+        return true;
+    }
+
+    /**
+     * Read the next line. The returned ByteLine is reused (and only valid until the next call).
+     *
+     * @return the next line, or null at the end of the file
+     */
+    public ByteLine readLine() throws IOException {
+        if (closed) {
+            return null;
+        }
+
+        int scanned = start;
+        int nl;
+        while ((nl = findNewline(scanned)) == -1) {
+            // everything from start to end has been checked (fill() may move start)
+            int checked = end - start;
+            if (!fill()) {
+                if (start == end) {
+                    return null;
+                }
+                // last line (no newline)
+                setLine(start, end);
+                start = end;
+                return line;
+            }
+            scanned = start + checked;
+        }
+
+        setLine(start, nl);
+        start = nl + 1;
+        return line;
+    }
+
+    private void setLine(int from, int to) {
+        if (to > from && buf[to - 1] == '\r') {
+            to--;
+        }
+        line.set(buf, from, to - from);
+    }
+
+    public void close() throws IOException {
+        if (!closed) {
+            in.close();
+            closed = true;
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Iterate over the lines. The same ByteLine object is returned for each line.
+     */
+    @Override
+    public Iterator<ByteLine> iterator() {
+        return new Iterator<ByteLine>() {
+            ByteLine next = null;
+            boolean ready = false;
+
+            @Override
+            public boolean hasNext() {
+                if (!ready) {
+                    try {
+                        next = readLine();
+                    } catch (IOException e) {
+                        next = null;
+                    }
+                    ready = true;
+                    if (next == null) {
+                        try {
+                            close();
+                        } catch (IOException e) {
+                        }
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public ByteLine next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ready = false;
+                return next;
+            }
+
+            @Override
+            public void remove() {
+            }
+        };
+    }
+
+    public Iterator<ByteLine> progress() {
+        return progress(null);
+    }
+
+    public Iterator<ByteLine> progress(ProgressMessage<ByteLine> msg) {
+        return ProgressUtils.getIterator(name, iterator(), new FileChannelStats(channel), msg);
+    }
+}
@@ -0,0 +1,224 @@
+package io.compgen.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import io.compgen.common.progress.ProgressMessage;
+import io.compgen.common.progress.ProgressStats;
+import io.compgen.common.progress.ProgressUtils;
+
+/**
+ * Reads the lines from a list of files, one file after another, as if they were one file.
+ *
+ * While one file is being read, the next file is opened on a background thread. For gzip
+ * files, this means the next file has already started decompressing by the time it's needed
+ * (see AbstractLineReader), which hides the startup time for each file.
+ *
+ * progress() reports the position over all of the files.
+ */
+public class ConcatLineReader implements Iterable<String> {
+    private final List<String> filenames;
+    private final Charset charset;
+    private final int decompressThreads;
+    private final long totalSize;
+
+    private ExecutorService pool = null;
+    private Future<StringLineReader> next = null;
+    private volatile StringLineReader current = null;
+    private int currentIdx = -1;
+    // total size of the files that have been read
+    private volatile long finishedSize = 0;
+    private boolean closed = false;
+
+    public ConcatLineReader(String... filenames) {
+        this(Arrays.asList(filenames));
+    }
+
+    public ConcatLineReader(List<String> filenames) {
+        this(filenames, Charset.defaultCharset(), 1);
+    }
+
+    /**
+     * @param filenames - files to read (in order)
+     * @param charset - charset of the files
+     * @param decompressThreads - if a file is block-gzip compressed (BGZF), decompress blocks on this many threads
+     */
+    public ConcatLineReader(List<String> filenames, Charset charset, int decompressThreads) {
+        this.filenames = new ArrayList<String>(filenames);
+        this.charset = charset;
+        this.decompressThreads = decompressThreads;
+
+        long size = 0;
+        for (String filename: filenames) {
+            size += new File(filename).length();
+        }
+        this.totalSize = size;
+    }
+
+    private StringLineReader open(int idx) throws IOException {
+        return new StringLineReader(filenames.get(idx), charset, decompressThreads);
+    }
+
+    /**
+     * Open the next file in the background.
+     */
+    private void prefetch(final int idx) {
+        if (pool == null) {
+            pool = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ConcatLineReader");
+                    t.setDaemon(true);
+                    return t;
+                }});
+        }
+        next = pool.submit(new Callable<StringLineReader>() {
+            @Override
+            public StringLineReader call() throws Exception {
+                return open(idx);
+            }});
+    }
+
+    /**
+     * Close the current file and move to the next one.
+     * @return false if there are no more files
+     */
+    private boolean nextFile() throws IOException {
+        if (current != null) {
+            finishedSize += new File(filenames.get(currentIdx)).length();
+            current.close();
+            current = null;
+        }
+        if (closed || currentIdx + 1 >= filenames.size()) {
+            return false;
+        }
+
+        currentIdx++;
+        if (next != null) {
+            try {
+                current = next.get();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            } finally {
+                next = null;
+            }
+        } else {
+            current = open(currentIdx);
+        }
+
+        if (currentIdx + 1 < filenames.size()) {
+            prefetch(currentIdx + 1);
+        } else if (pool != null) {
+            pool.shutdown();
+        }
+        return true;
+    }
+
+    /**
+     * Iterate over the lines in all of the files. If a file can't be opened, an
+     * UncheckedIOException is thrown.
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            Iterator<String> it = null;
+
+            @Override
+            public boolean hasNext() {
+                if (closed) {
+                    return false;
+                }
+                while (it == null || !it.hasNext()) {
+                    try {
+                        if (!nextFile()) {
+                            return false;
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    it = current.iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return it.next();
+            }
+
+            @Override
+            public void remove() {
+            }
+        };
+    }
+
+    public void close() throws IOException {
+        closed = true;
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        if (next != null) {
+            // the next file may already be open
+            try {
+                next.get().close();
+            } catch (Exception e) {
+            }
+            next = null;
+        }
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public Iterator<String> progress() {
+        return progress(null);
+    }
+
+    public Iterator<String> progress(ProgressMessage<String> msg) {
+        String name = filenames.size() == 1 ? filenames.get(0) : filenames.size() + " files";
+        return ProgressUtils.getIterator(name, iterator(), new ProgressStats() {
+            @Override
+            public long size() {
+                return totalSize;
+            }
+
+            @Override
+            public long position() {
+                long pos = finishedSize;
+                StringLineReader reader = current;
+                if (reader != null && reader.channel != null) {
+                    try {
+                        pos += reader.channel.position();
+                    } catch (IOException e) {
+                    }
+                }
+                return pos;
+            }}, msg);
+    }
+}
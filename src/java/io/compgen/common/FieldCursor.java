@@ -0,0 +1,209 @@
+package io.compgen.common;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The fields of a delimited line (tab-delimited by default), without splitting it into Strings.
+ * The delimiter positions are found once per line, and then columns can be read (or parsed as
+ * numbers) directly from the line's bytes.
+ *
+ * The field views returned by getCharSequence() are reused for each line, so (like ByteLine)
+ * they are only valid until the next line is read. Use toString() to keep a value.
+ */
+public class FieldCursor {
+    private final byte delim;
+
+    private ByteLine line = null;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private ByteLine[] views = new ByteLine[16];
+    private int size = 0;
+
+    public FieldCursor() {
+        this('\t');
+    }
+
+    public FieldCursor(char delim) {
+        if (delim > 0x7F) {
+            throw new IllegalArgumentException("Delimiter must be an ASCII character");
+        }
+        this.delim = (byte) delim;
+    }
+
+    /**
+     * Find the fields in a line. The cursor keeps a reference to line (it isn't copied).
+     */
+    public FieldCursor set(ByteLine line) {
+        this.line = line;
+        this.size = 0;
+
+        int start = 0;
+        while (true) {
+            int end = line.indexOf(delim, start);
+            if (end == -1) {
+                addField(start, line.length());
+                break;
+            }
+            addField(start, end);
+            start = end + 1;
+        }
+        return this;
+    }
+
+    private void addField(int start, int end) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+            views = Arrays.copyOf(views, size * 2);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    /**
+     * @return the number of fields in the line
+     */
+    public int size() {
+        return size;
+    }
+
+    public ByteLine getLine() {
+        return line;
+    }
+
+    private void check(int col) {
+        if (col < 0 || col >= size) {
+            throw new IndexOutOfBoundsException("column: "+col+", size: "+size);
+        }
+    }
+
+    /**
+     * @return the length of a field (in bytes)
+     */
+    public int length(int col) {
+        check(col);
+        return ends[col] - starts[col];
+    }
+
+    /**
+     * Returns a view of a field. The same object is reused for this column on every line.
+     */
+    public CharSequence getCharSequence(int col) {
+        check(col);
+        if (views[col] == null) {
+            views[col] = new ByteLine();
+        }
+        views[col].set(line.buffer(), line.offset() + starts[col], ends[col] - starts[col]);
+        return views[col];
+    }
+
+    /**
+     * @return a field as a (new) String
+     */
+    public String getString(int col) {
+        check(col);
+        return new String(line.buffer(), line.offset() + starts[col], ends[col] - starts[col], StandardCharsets.ISO_8859_1);
+    }
+
+    public int getInt(int col) {
+        long val = getLong(col);
+        if (val < Integer.MIN_VALUE || val > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Value out of range for int: \""+getString(col)+"\"");
+        }
+        return (int) val;
+    }
+
+    /**
+     * Parses a field as a long (the same format as Long.parseLong()).
+     */
+    public long getLong(int col) {
+        check(col);
+        byte[] buf = line.buffer();
+        int i = line.offset() + starts[col];
+        int end = line.offset() + ends[col];
+
+        boolean neg = false;
+        if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+            neg = buf[i] == '-';
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException("For input string: \""+getString(col)+"\"");
+        }
+
+        // accumulate as a negative number so that Long.MIN_VALUE can be parsed
+        long limit = neg ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long val = 0;
+        for (; i < end; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9 || val < limit / 10 || val * 10 < limit + digit) {
+                throw new NumberFormatException("For input string: \""+getString(col)+"\"");
+            }
+            val = val * 10 - digit;
+        }
+        return neg ? val : -val;
+    }
+
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Parses a field as a double (the same format as Double.parseDouble()).
+     *
+     * Plain decimals (like "-12.345") with up to 15 digits are parsed directly (and give the
+     * same result as Double.parseDouble()). Anything else (exponents, NaN, etc) is passed to
+     * Double.parseDouble().
+     */
+    public double getDouble(int col) {
+        check(col);
+        byte[] buf = line.buffer();
+        int i = line.offset() + starts[col];
+        int end = line.offset() + ends[col];
+
+        boolean neg = false;
+        if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+            neg = buf[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int chars = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            byte b = buf[i];
+            if (b >= '0' && b <= '9') {
+                chars++;
+                mantissa = mantissa * 10 + (b - '0');
+                if (mantissa > 0) {
+                    digits++;
+                }
+                if (point) {
+                    scale++;
+                }
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+
+        // mantissa and 10^scale are exact doubles here, so the division is correctly rounded
+        if (i < end || chars == 0 || digits > 15 || scale >= POW10.length) {
+            return Double.parseDouble(getString(col));
+        }
+
+        double val = mantissa / POW10[scale];
+        return neg ? -val : val;
+    }
+
+    @Override
+    public String toString() {
+        return line == null ? "" : line.toString();
+    }
+}
@@ -0,0 +1,201 @@
+package io.compgen.common;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A Spliterator over the lines in a byte range of an (uncompressed) text file. Ranges are split
+ * in half (by bytes) as needed, so a parallel Stream can read one file on many threads.
+ *
+ * A range returns every line that *starts* in the range. If a range doesn't start at the beginning
+ * of the file, the partial line at the start is skipped (it belongs to the previous range).
+ *
+ * All ranges share the same FileChannel, and read from it with positional reads, so they can be
+ * read at the same time. Each line is decoded and passed to a converter (lines that convert to
+ * null are skipped).
+ *
+ * Lines are found by scanning for the byte '\n', so the charset must be ASCII-compatible
+ * (see isSupported()). UTF-16 and UTF-32 files can't be split this way.
+ */
+public class FileRangeSpliterator<T> implements Spliterator<T> {
+    public static final long DEFAULT_MIN_SPLIT_SIZE = 1024*1024;
+    private static final int BUFFER_SIZE = 64*1024;
+
+    private final FileChannel channel;
+    private final Charset charset;
+    private final Function<String, T> converter;
+    private final long minSplitSize;
+
+    private long pos;
+    private long end;
+    private boolean aligned;
+
+    private byte[] buf = null;
+    private long bufStart;
+    private int bufLen = 0;
+
+    public FileRangeSpliterator(FileChannel channel, Charset charset, Function<String, T> converter) throws IOException {
+        this(channel, 0, channel.size(), charset, converter, DEFAULT_MIN_SPLIT_SIZE);
+    }
+
+    /**
+     * @param channel
+     * @param start - byte offset of the range
+     * @param end - end of the range (exclusive)
+     * @param charset
+     * @param converter - converts each line to a value
+     * @param minSplitSize - ranges smaller than this won't be split
+     */
+    public FileRangeSpliterator(FileChannel channel, long start, long end, Charset charset, Function<String, T> converter, long minSplitSize) {
+        if (!isSupported(charset)) {
+            throw new IllegalArgumentException("Files can only be split by byte ranges for ASCII-compatible charsets: "+charset);
+        }
+        this.channel = channel;
+        this.pos = start;
+        this.end = end;
+        this.charset = charset;
+        this.converter = converter;
+        this.minSplitSize = minSplitSize;
+        this.aligned = (start == 0);
+    }
+
+    /**
+     * Returns true if lines in this charset can be found by scanning for the byte '\n'
+     * (UTF-8 or a single-byte charset where '\n' is 0x0A).
+     */
+    public static boolean isSupported(Charset charset) {
+        if (charset.name().equals("UTF-8")) {
+            return true;
+        }
+        if (!charset.canEncode() || charset.newEncoder().maxBytesPerChar() != 1) {
+            return false;
+        }
+        return Arrays.equals("\n".getBytes(charset), new byte[] { '\n' });
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        try {
+            if (!aligned) {
+                // skip the partial line (from start-1, in case start is the beginning of a line)
+                pos--;
+                nextLine();
+                aligned = true;
+            }
+            while (pos < end) {
+                String line = nextLine();
+                if (line == null) {
+                    pos = end;
+                    return false;
+                }
+                T val = converter.apply(line);
+                if (val != null) {
+                    action.accept(val);
+                    return true;
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Read the line starting at pos and move pos to the start of the next line.
+     * @return the line (without the line ending), or null at the end of the file
+     */
+    private String nextLine() throws IOException {
+        if (buf == null || pos < bufStart || pos > bufStart + bufLen) {
+            if (buf == null) {
+                buf = new byte[BUFFER_SIZE];
+            }
+            bufStart = pos;
+            bufLen = 0;
+        }
+
+        int scan = (int) (pos - bufStart);
+        while (true) {
+            for (; scan < bufLen; scan++) {
+                if (buf[scan] == '\n') {
+                    String line = decode((int) (pos - bufStart), scan);
+                    pos = bufStart + scan + 1;
+                    return line;
+                }
+            }
+
+            int checked = scan - (int) (pos - bufStart);
+            if (!fill()) {
+                int from = (int) (pos - bufStart);
+                if (from >= bufLen) {
+                    return null;
+                }
+                String line = decode(from, bufLen);
+                pos = bufStart + bufLen;
+                return line;
+            }
+            scan = (int) (pos - bufStart) + checked;
+        }
+    }
+
+    /**
+     * Move the unread part of the buffer to the front (growing it if needed) and read more.
+     * @return false at the end of the file
+     */
+    private boolean fill() throws IOException {
+        int shift = (int) (pos - bufStart);
+        if (shift > 0) {
+            System.arraycopy(buf, shift, buf, 0, bufLen - shift);
+            bufLen -= shift;
+            bufStart = pos;
+        } else if (bufLen == buf.length) {
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        int n = channel.read(ByteBuffer.wrap(buf, bufLen, buf.length - bufLen), bufStart + bufLen);
+        if (n <= 0) {
+            return false;
+        }
+        bufLen += n;
+        return true;
+    }
+
+    private String decode(int from, int to) {
+        if (to > from && buf[to - 1] == '\r') {
+            to--;
+        }
+        return new String(buf, from, to - from, charset);
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        if (end - pos < minSplitSize * 2) {
+            return null;
+        }
+        // the first half is split off (this is ORDERED, so the split has to be a prefix)
+        long mid = pos + (end - pos) / 2;
+        FileRangeSpliterator<T> split = new FileRangeSpliterator<T>(channel, pos, mid, charset, converter, minSplitSize);
+        split.aligned = aligned;
+        pos = mid;
+        aligned = false;
+        return split;
+    }
+
+    /**
+     * @return the number of bytes remaining (not lines)
+     */
+    @Override
+    public long estimateSize() {
+        return Math.max(0, end - pos);
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+}
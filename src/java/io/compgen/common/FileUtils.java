@@ -5,8 +5,12 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
+import io.compgen.common.io.BlockGzipOutputStream;
+import io.compgen.common.io.WriteBehindOutputStream;
+
 public class FileUtils {
 	public FileUtils() {
 	}
@@ -15,22 +19,48 @@ public class FileUtils {
     }
 
     public static OutputStream openOutputStream(String outputName, boolean forceCompress) throws IOException {
-    	if (forceCompress) {
-        	if (outputName == null || outputName.equals("-")) {
-                return new GZIPOutputStream(System.out);
-            } else {
-                return new GZIPOutputStream(new FileOutputStream(outputName));
-            }
+    	return openOutputStream(outputName, new OutputOptions().compress(forceCompress));
+    }
+
+    /**
+     * Open an output stream (or stdout, if the name is "-" or null) with more options (see
+     * OutputOptions). Output is gzip compressed if the name ends in .gz or compress is set.
+     * 
+     * If async is set, compression and writing are done on a background thread, so the caller
+     * only blocks when the queue of buffers is full. Write errors are thrown by the next call
+     * to write(), flush(), or close().
+     */
+    public static OutputStream openOutputStream(String outputName, final OutputOptions options) throws IOException {
+    	OutputStream out;
+    	boolean stdout = (outputName == null || outputName.equals("-"));
+    	if (stdout) {
+    		out = System.out;
     	} else {
-	    	if (outputName == null || outputName.equals("-")) {
-	            return System.out;
-	        } else if (outputName.endsWith(".gz")) {
-	            return new GZIPOutputStream(new FileOutputStream(outputName));
-	        } else {
-	            return new BufferedOutputStream(new FileOutputStream(outputName));
-	        }
+    		out = new FileOutputStream(outputName);
+    	}
+
+    	if (options.isCompress() || (!stdout && outputName.endsWith(".gz"))) {
+    		if (options.isBlockCompress()) {
+    			out = new BlockGzipOutputStream(out, options.getThreads(), options.getLevel());
+    		} else if (options.getLevel() != Deflater.DEFAULT_COMPRESSION) {
+    			out = new GZIPOutputStream(out) {
+    				{
+    					def.setLevel(options.getLevel());
+    				}
+    			};
+    		} else {
+    			out = new GZIPOutputStream(out);
+    		}
+    	} else if (!stdout && !options.isAsync()) {
+    		out = new BufferedOutputStream(out);
+    	}
+
+    	if (options.isAsync()) {
+    		out = new WriteBehindOutputStream(out, options.getBufferSize(), options.getBuffers());
     	}
+    	return out;
     }
+
 	/**
 	 * Replace ~/foo/bar filenames with $HOME/foo/bar
 	 * 
@@ -0,0 +1,189 @@
+package io.compgen.common;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import io.compgen.common.progress.ProgressStats;
+
+/**
+ * Reads lines from a file that is still being written (see AbstractLineReader.setFollow()).
+ * When the end of the file is reached, this waits for more data (polling the file size, with
+ * increasing waits) and continues from where it left off.
+ *
+ * Only complete lines (ending in '\n') are returned while the file is being written. A partial
+ * last line is returned once the file is finished (marker file or timeout).
+ *
+ * This extends BufferedReader so that it can be used in place of one by AbstractLineReader,
+ * but only readLine() is supported.
+ */
+class FollowLineReader extends BufferedReader implements ProgressStats {
+    private static final int BUFFER_SIZE = 64*1024;
+
+    private final FileChannel channel;
+    private final Reader parent;
+    private final Charset charset;
+    private final FollowOptions options;
+
+    private byte[] buf = new byte[BUFFER_SIZE];
+    private int start = 0;
+    private int end = 0;
+    // file offset of buf[end]
+    private volatile long pos = 0;
+    private boolean done = false;
+    private volatile boolean closed = false;
+
+    /**
+     * @param channel - the file to read (from the start)
+     * @param parent - the reader for the same file (closed with this reader)
+     */
+    FollowLineReader(FileChannel channel, Reader parent, Charset charset, FollowOptions options) {
+        super(parent, 1);
+        this.channel = channel;
+        this.parent = parent;
+        this.charset = charset;
+        this.options = options;
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        if (closed) {
+            return null;
+        }
+
+        int scan = start;
+        long wait = options.getMinPollInterval();
+        long lastData = System.currentTimeMillis();
+
+        while (true) {
+            for (; scan < end; scan++) {
+                if (buf[scan] == '\n') {
+                    String line = decode(start, scan);
+                    start = scan + 1;
+                    if (options.getSentinel() != null && options.getSentinel().equals(line)) {
+                        done = true;
+                        start = end;
+                        return null;
+                    }
+                    return line;
+                }
+            }
+
+            if (done) {
+                if (start == end) {
+                    return null;
+                }
+                // last line (no newline)
+                String line = decode(start, end);
+                start = end;
+                if (options.getSentinel() != null && options.getSentinel().equals(line)) {
+                    return null;
+                }
+                return line;
+            }
+
+            // fill() may move the data to the start of the buffer
+            int checked = scan - start;
+            int n = fill();
+            scan = start + checked;
+            if (n > 0) {
+                wait = options.getMinPollInterval();
+                lastData = System.currentTimeMillis();
+                continue;
+            }
+
+            // at the end of the file (for now)
+            if (closed) {
+                return null;
+            }
+            if (options.getMarker() != null && new File(options.getMarker()).exists()) {
+                // anything written before the marker was created
+                while (fill() > 0) {
+                }
+                done = true;
+                scan = start + checked;
+                continue;
+            }
+            if (options.getTimeout() > 0 && System.currentTimeMillis() - lastData >= options.getTimeout()) {
+                done = true;
+                continue;
+            }
+
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for more data");
+            }
+            wait = Math.min(wait * 2, options.getMaxPollInterval());
+        }
+    }
+
+    /**
+     * Move unread data to the start of the buffer (growing it if it is full) and read more.
+     * @return the number of bytes read
+     */
+    private int fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buf, start, buf, 0, end - start);
+            end -= start;
+            start = 0;
+        } else if (end == buf.length) {
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        int n = channel.read(ByteBuffer.wrap(buf, end, buf.length - end), pos);
+        if (n <= 0) {
+            return 0;
+        }
+        end += n;
+        pos += n;
+        return n;
+    }
+
+    private String decode(int from, int to) {
+        if (to > from && buf[to - 1] == '\r') {
+            to--;
+        }
+        return new String(buf, from, to - from, charset);
+    }
+
+    @Override
+    public int read() throws IOException {
+        throw new UnsupportedOperationException("Only readLine() is supported");
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        throw new UnsupportedOperationException("Only readLine() is supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            parent.close();
+        }
+    }
+
+    @Override
+    public long size() {
+        try {
+            return channel.size();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the offset of the next line
+     */
+    @Override
+    public long position() {
+        return pos - (end - start);
+    }
+}
@@ -0,0 +1,74 @@
+package io.compgen.common;
+
+/**
+ * Options for reading a file that is still being written (see AbstractLineReader.setFollow()).
+ *
+ * Ex: reader.setFollow(new FollowOptions().marker("out.txt.done").timeout(600000))
+ *
+ * sentinel        - stop when this line is read (the sentinel isn't returned)
+ * marker          - stop when this file exists (and all data has been read)
+ * timeout         - stop if no new data has been written for this long (ms, 0 to wait forever)
+ * minPollInterval - first wait (ms) after reaching the end of the file
+ * maxPollInterval - longest wait (ms); waits double from the min up to this
+ *
+ * If none of sentinel, marker, or timeout are set, the reader waits forever (until closed or
+ * interrupted).
+ */
+public class FollowOptions {
+	public static final long DEFAULT_MIN_POLL_INTERVAL = 10;
+	public static final long DEFAULT_MAX_POLL_INTERVAL = 1000;
+
+	private String sentinel = null;
+	private String marker = null;
+	private long timeout = 0;
+	private long minPollInterval = DEFAULT_MIN_POLL_INTERVAL;
+	private long maxPollInterval = DEFAULT_MAX_POLL_INTERVAL;
+
+	public FollowOptions() {
+	}
+
+	public FollowOptions sentinel(String sentinel) {
+		this.sentinel = sentinel;
+		return this;
+	}
+
+	public FollowOptions marker(String marker) {
+		this.marker = marker;
+		return this;
+	}
+
+	public FollowOptions timeout(long timeout) {
+		this.timeout = timeout;
+		return this;
+	}
+
+	public FollowOptions minPollInterval(long minPollInterval) {
+		this.minPollInterval = minPollInterval;
+		return this;
+	}
+
+	public FollowOptions maxPollInterval(long maxPollInterval) {
+		this.maxPollInterval = maxPollInterval;
+		return this;
+	}
+
+	public String getSentinel() {
+		return sentinel;
+	}
+
+	public String getMarker() {
+		return marker;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	public long getMinPollInterval() {
+		return minPollInterval;
+	}
+
+	public long getMaxPollInterval() {
+		return maxPollInterval;
+	}
+}
@@ -0,0 +1,144 @@
+package io.compgen.common;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A Spliterator over the lines from a BufferedReader. Lines can only be read in order, so to
+ * split, a batch of lines is read (but not converted) and handed off as an array. This lets
+ * a parallel Stream convert and process the batches on other threads. Batches grow by
+ * BATCH_UNIT lines with each split (up to MAX_BATCH).
+ *
+ * Each line is passed to a converter (lines that convert to null are skipped). The reader is
+ * closed when the last line has been read.
+ */
+public class LineBatchSpliterator<T> implements Spliterator<T> {
+    public static final int BATCH_UNIT = 1024;
+    public static final int MAX_BATCH = 1 << 20;
+
+    private final BufferedReader reader;
+    private final Function<String, T> converter;
+    private int batch = 0;
+    private boolean eof = false;
+
+    public LineBatchSpliterator(BufferedReader reader, Function<String, T> converter) {
+        this.reader = reader;
+        this.converter = converter;
+    }
+
+    private String readLine() {
+        if (eof) {
+            return null;
+        }
+        try {
+            String line = reader.readLine();
+            if (line == null) {
+                eof = true;
+                reader.close();
+            }
+            return line;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        String line;
+        while ((line = readLine()) != null) {
+            T val = converter.apply(line);
+            if (val != null) {
+                action.accept(val);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        if (eof) {
+            return null;
+        }
+        batch = Math.min(batch + BATCH_UNIT, MAX_BATCH);
+        String[] lines = new String[batch];
+        int n = 0;
+        String line;
+        while (n < batch && (line = readLine()) != null) {
+            lines[n++] = line;
+        }
+        if (n == 0) {
+            return null;
+        }
+        return new Batch<T>(lines, n, converter);
+    }
+
+    @Override
+    public long estimateSize() {
+        return eof ? 0 : Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    /**
+     * A batch of lines that have already been read.
+     */
+    private static class Batch<T> implements Spliterator<T> {
+        private final String[] lines;
+        private final Function<String, T> converter;
+        private int pos;
+        private final int end;
+
+        private Batch(String[] lines, int end, Function<String, T> converter) {
+            this(lines, 0, end, converter);
+        }
+
+        private Batch(String[] lines, int pos, int end, Function<String, T> converter) {
+            this.lines = lines;
+            this.pos = pos;
+            this.end = end;
+            this.converter = converter;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            while (pos < end) {
+                T val = converter.apply(lines[pos]);
+                lines[pos++] = null;
+                if (val != null) {
+                    action.accept(val);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            int mid = pos + (end - pos) / 2;
+            if (mid - pos < BATCH_UNIT / 2) {
+                return null;
+            }
+            Batch<T> split = new Batch<T>(lines, pos, mid, converter);
+            pos = mid;
+            return split;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - pos;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package io.compgen.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import io.compgen.common.io.DataIO;
+
+/**
+ * Index of the line offsets in an uncompressed text file. The byte offset of every Nth line
+ * is stored, so any line can be found by seeking to the closest indexed line and scanning
+ * forward (at most N-1 lines). See StringLineReader.atLine().
+ *
+ * Indexes can be saved as a small sidecar file (filename.lidx):
+ *
+ *   byte[4]  "LIDX"
+ *   varint   interval (N)
+ *   varint   length of the indexed file
+ *   varint   number of lines
+ *   varint   number of offsets
+ *   [offsets]
+ *     varint line offset (delta from the previous offset)
+ *
+ * If the file has been appended to since the index was built, lines past the end of the
+ * index are found by scanning from the last indexed line.
+ */
+public class LineIndex {
+    public static final int DEFAULT_INTERVAL = 10000;
+    public static final String SUFFIX = ".lidx";
+
+    private static final byte[] MAGIC = new byte[] { 'L', 'I', 'D', 'X' };
+    private static final int BUFFER_SIZE = 1024*1024;
+
+    private final int interval;
+    private long length = 0;
+    private long lines = 0;
+    private long[] offsets = new long[64];
+    private int size = 0;
+
+    private LineIndex(int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Invalid interval: "+interval);
+        }
+        this.interval = interval;
+    }
+
+    private void add(long offset) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        offsets[size++] = offset;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return the number of lines in the file (when the index was built)
+     */
+    public long getLineCount() {
+        return lines;
+    }
+
+    /**
+     * @return the length of the file (when the index was built)
+     */
+    public long getFileLength() {
+        return length;
+    }
+
+    /**
+     * Find the byte offset of a line (0-based), scanning forward from the closest indexed line.
+     *
+     * @return the offset of the line, or the length of the file if there aren't that many lines
+     */
+    public long findLine(FileChannel channel, long line) throws IOException {
+        if (line < 0) {
+            throw new IndexOutOfBoundsException("Invalid line: "+line);
+        }
+        long fileLength = channel.size();
+        if (fileLength < length) {
+            throw new IOException("The file is shorter than the index (the index is out of date)");
+        }
+        if (size == 0) {
+            return line == 0 ? 0 : fileLength;
+        }
+
+        int idx = (int) Math.min(line / interval, size - 1);
+        long pos = offsets[idx];
+        long skip = line - (long) idx * interval;
+
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        while (skip > 0 && pos < fileLength) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n <= 0) {
+                break;
+            }
+            byte[] b = buf.array();
+            for (int i=0; i<n; i++) {
+                if (b[i] == '\n' && --skip == 0) {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        return skip == 0 ? pos : fileLength;
+    }
+
+    /**
+     * Find the start of the line at or after offset. If offset isn't the start of a line, the
+     * rest of that line is skipped.
+     *
+     * @return the offset of the next line, or the length of the file
+     */
+    public static long nextLine(FileChannel channel, long offset) throws IOException {
+        if (offset <= 0) {
+            return 0;
+        }
+        // start at offset-1, in case offset is already the start of a line
+        long pos = offset - 1;
+        ByteBuffer buf = ByteBuffer.allocate(64*1024);
+        while (true) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n <= 0) {
+                return channel.size();
+            }
+            byte[] b = buf.array();
+            for (int i=0; i<n; i++) {
+                if (b[i] == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+    }
+
+    /**
+     * Returns true if the file starts with the gzip magic bytes (compressed files can't be indexed).
+     */
+    static boolean isGzip(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(2);
+        while (magic.hasRemaining() && channel.read(magic, magic.position()) > 0) {
+        }
+        return AbstractLineReader.isGzip(Arrays.copyOf(magic.array(), magic.position()));
+    }
+
+    public static LineIndex build(String filename) throws IOException {
+        return build(filename, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Build an index by scanning the file for newlines.
+     *
+     * @param filename - uncompressed text file
+     * @param interval - store the offset of every Nth line
+     */
+    public static LineIndex build(String filename, int interval) throws IOException {
+        LineIndex index = new LineIndex(interval);
+        FileChannel channel = FileChannel.open(new File(filename).toPath(), StandardOpenOption.READ);
+        try {
+            if (isGzip(channel)) {
+                throw new IOException("Can't index a compressed file: "+filename);
+            }
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            byte[] b = buf.array();
+            long pos = 0;
+            long line = 0;
+            // offset of the start of the current line, or -1 if it was already counted
+            long start = 0;
+            int n;
+            while ((n = channel.read(buf, pos)) > 0) {
+                for (int i=0; i<n; i++) {
+                    if (start != -1) {
+                        if (line % interval == 0) {
+                            index.add(start);
+                        }
+                        line++;
+                        start = -1;
+                    }
+                    if (b[i] == '\n') {
+                        start = pos + i + 1;
+                    }
+                }
+                pos += n;
+                buf.clear();
+            }
+            index.length = pos;
+            index.lines = line;
+        } finally {
+            channel.close();
+        }
+        return index;
+    }
+
+    /**
+     * Build an index on a background thread.
+     */
+    public static Future<LineIndex> buildInBackground(final String filename, final int interval) {
+        FutureTask<LineIndex> task = new FutureTask<LineIndex>(new Callable<LineIndex>() {
+            @Override
+            public LineIndex call() throws Exception {
+                return build(filename, interval);
+            }});
+        Thread t = new Thread(task, "LineIndex");
+        t.setDaemon(true);
+        t.start();
+        return task;
+    }
+
+    public static LineIndex load(String filename) throws IOException {
+        return load(filename, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Read the sidecar index for a file (filename.lidx). If there isn't one (or it is older than
+     * the file), the index is built and saved. If the sidecar can't be written, the index is
+     * still returned.
+     */
+    public static LineIndex load(String filename, int interval) throws IOException {
+        File file = new File(filename);
+        File sidecar = new File(filename + SUFFIX);
+        if (sidecar.exists() && sidecar.lastModified() >= file.lastModified()) {
+            LineIndex index = read(sidecar.getPath());
+            if (index.interval == interval && index.length == file.length()) {
+                return index;
+            }
+        }
+
+        LineIndex index = build(filename, interval);
+        try {
+            index.write(sidecar.getPath());
+        } catch (IOException e) {
+            // the directory may not be writable
+            sidecar.delete();
+        }
+        return index;
+    }
+
+    public void write(String filename) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(filename));
+        try {
+            write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    public void write(OutputStream out) throws IOException {
+        DataIO.writeRawBytes(out, MAGIC);
+        DataIO.writeVarInt(out, interval);
+        DataIO.writeVarInt(out, length);
+        DataIO.writeVarInt(out, lines);
+        DataIO.writeVarInt(out, size);
+        long last = 0;
+        for (int i=0; i<size; i++) {
+            DataIO.writeVarInt(out, offsets[i] - last);
+            last = offsets[i];
+        }
+    }
+
+    public static LineIndex read(String filename) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(filename));
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    public static LineIndex read(InputStream in) throws IOException {
+        if (!Arrays.equals(DataIO.readRawBytes(in, MAGIC.length), MAGIC)) {
+            throw new IOException("Invalid line index (bad magic)");
+        }
+        long interval = DataIO.readVarInt(in);
+        long length = DataIO.readVarInt(in);
+        long lines = DataIO.readVarInt(in);
+        long count = DataIO.readVarInt(in);
+        if (interval < 1 || interval > Integer.MAX_VALUE || length < 0 || lines < 0 || count < 0) {
+            throw new IOException("Invalid line index (truncated)");
+        }
+
+        LineIndex index = new LineIndex((int) interval);
+        index.length = length;
+        index.lines = lines;
+        long offset = 0;
+        for (long i=0; i<count; i++) {
+            long delta = DataIO.readVarInt(in);
+            if (delta < 0) {
+                throw new IOException("Invalid line index (truncated)");
+            }
+            offset += delta;
+            index.add(offset);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,97 @@
+package io.compgen.common;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+import io.compgen.common.io.MappedFile;
+import io.compgen.common.progress.ProgressStats;
+
+/**
+ * Reads lines from a memory-mapped file (see AbstractLineReader.setMemoryMapped()). Lines are
+ * found by scanning the mapped file directly and each line is decoded straight from the
+ * mapped bytes, so data isn't copied through the Reader/BufferedReader buffers.
+ *
+ * This extends BufferedReader so that it can be used in place of one by AbstractLineReader,
+ * but only readLine() is supported. The position of the next line is also reported as the
+ * progress.
+ */
+class MappedLineReader extends BufferedReader implements ProgressStats {
+    private final MappedFile file;
+    private final Reader parent;
+    private final Charset charset;
+
+    private byte[] buf = new byte[1024];
+    private volatile long pos = 0;
+    private boolean closed = false;
+
+    /**
+     * @param parent - the reader for the same file (closed with this reader)
+     */
+    MappedLineReader(MappedFile file, Reader parent, Charset charset) {
+        super(parent, 1);
+        this.file = file;
+        this.parent = parent;
+        this.charset = charset;
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        if (closed || pos >= file.length()) {
+            return null;
+        }
+
+        long end = file.indexOf((byte) '\n', pos);
+        long next;
+        if (end == -1) {
+            end = file.length();
+            next = end;
+        } else {
+            next = end + 1;
+        }
+        if (end > pos && file.getByte(end - 1) == '\r') {
+            end--;
+        }
+
+        long len = end - pos;
+        if (len > Integer.MAX_VALUE - 8) {
+            throw new IOException("Line is too long: "+len);
+        }
+        if (buf.length < len) {
+            buf = new byte[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(len, buf.length * 2L))];
+        }
+        file.getBytes(pos, buf, 0, (int) len);
+        pos = next;
+        return new String(buf, 0, (int) len, charset);
+    }
+
+    @Override
+    public int read() throws IOException {
+        throw new UnsupportedOperationException("Only readLine() is supported");
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        throw new UnsupportedOperationException("Only readLine() is supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            file.close();
+            parent.close();
+        }
+    }
+
+    @Override
+    public long size() {
+        return file.length();
+    }
+
+    @Override
+    public long position() {
+        return pos;
+    }
+}
@@ -0,0 +1,210 @@
+package io.compgen.common;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import io.compgen.common.progress.ProgressMessage;
+import io.compgen.common.progress.ProgressStats;
+import io.compgen.common.progress.ProgressUtils;
+
+/**
+ * Merges the lines from multiple readers that are already sorted, so that the output is also
+ * sorted. The next line from each reader is kept in a heap, so each line takes O(log k) for
+ * k readers. Lines that compare equal are returned in the order of the readers.
+ *
+ * The inputs aren't checked; if a reader isn't sorted (by the same comparator), the output
+ * won't be either.
+ *
+ * progress() reports the position over all of the readers.
+ */
+public class MergeLineReader<T> implements Iterable<T> {
+    private final List<AbstractLineReader<T>> readers;
+    private final Comparator<? super T> comparator;
+    // the length of each input (captured up front, since readers close their channel at EOF)
+    private final long[] sizes;
+    private final long totalSize;
+    private final boolean[] finished;
+    // total size of the inputs that have been read
+    private long finishedSize = 0;
+    private boolean closed = false;
+
+    /**
+     * The next value from one reader.
+     */
+    private static class Head<T> {
+        private final Iterator<T> it;
+        private final int idx;
+        private T value;
+
+        private Head(Iterator<T> it, int idx) {
+            this.it = it;
+            this.idx = idx;
+        }
+    }
+
+    public MergeLineReader(List<? extends AbstractLineReader<T>> readers, Comparator<? super T> comparator) {
+        this.readers = new ArrayList<AbstractLineReader<T>>(readers);
+        this.comparator = comparator;
+        this.sizes = new long[this.readers.size()];
+        this.finished = new boolean[this.readers.size()];
+
+        long total = 0;
+        for (int i=0; i<sizes.length; i++) {
+            FileChannel channel = this.readers.get(i).channel;
+            if (channel != null && channel.isOpen()) {
+                try {
+                    sizes[i] = channel.size();
+                } catch (IOException e) {
+                }
+            }
+            total += sizes[i];
+        }
+        this.totalSize = total;
+    }
+
+    private synchronized void finished(int idx) {
+        if (!finished[idx]) {
+            finished[idx] = true;
+            finishedSize += sizes[idx];
+        }
+    }
+
+    /**
+     * Merge sorted files (with the lines compared as Strings).
+     */
+    public static MergeLineReader<String> open(List<String> filenames) throws IOException {
+        return open(filenames, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                return o1.compareTo(o2);
+            }});
+    }
+
+    public static MergeLineReader<String> open(List<String> filenames, Comparator<? super String> comparator) throws IOException {
+        List<StringLineReader> readers = new ArrayList<StringLineReader>();
+        try {
+            for (String filename: filenames) {
+                readers.add(new StringLineReader(filename));
+            }
+        } catch (IOException e) {
+            for (StringLineReader reader: readers) {
+                reader.close();
+            }
+            throw e;
+        }
+        return new MergeLineReader<String>(readers, comparator);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        final PriorityQueue<Head<T>> heap = new PriorityQueue<Head<T>>(Math.max(1, readers.size()), new Comparator<Head<T>>() {
+            @Override
+            public int compare(Head<T> o1, Head<T> o2) {
+                int cmp = comparator.compare(o1.value, o2.value);
+                if (cmp != 0) {
+                    return cmp;
+                }
+                return Integer.compare(o1.idx, o2.idx);
+            }});
+
+        for (int i=0; i<readers.size(); i++) {
+            Head<T> head = new Head<T>(readers.get(i).iterator(), i);
+            if (head.it.hasNext()) {
+                head.value = head.it.next();
+                heap.add(head);
+            } else {
+                finished(i);
+            }
+        }
+
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return !closed && !heap.isEmpty();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Head<T> head = heap.poll();
+                T out = head.value;
+                if (head.it.hasNext()) {
+                    head.value = head.it.next();
+                    heap.add(head);
+                } else {
+                    head.value = null;
+                    finished(head.idx);
+                }
+                return out;
+            }
+
+            @Override
+            public void remove() {
+            }
+        };
+    }
+
+    public void close() throws IOException {
+        IOException err = null;
+        for (AbstractLineReader<T> reader: readers) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                err = e;
+            }
+        }
+        closed = true;
+        if (err != null) {
+            throw err;
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public Iterator<T> progress() {
+        return progress(null);
+    }
+
+    public Iterator<T> progress(ProgressMessage<T> msg) {
+        String name = readers.size() == 1 ? readers.get(0).name : readers.size() + " files";
+        return ProgressUtils.getIterator(name, iterator(), new ProgressStats() {
+            @Override
+            public long size() {
+                return totalSize;
+            }
+
+            @Override
+            public long position() {
+                synchronized (MergeLineReader.this) {
+                    long pos = finishedSize;
+                    for (int i=0; i<sizes.length; i++) {
+                        FileChannel channel = readers.get(i).channel;
+                        if (finished[i] || channel == null) {
+                            continue;
+                        }
+                        if (!channel.isOpen()) {
+                            // the reader closes its channel at EOF
+                            pos += sizes[i];
+                            continue;
+                        }
+                        try {
+                            pos += Math.min(channel.position(), sizes[i]);
+                        } catch (IOException e) {
+                            pos += sizes[i];
+                        }
+                    }
+                    return pos;
+                }
+            }}, msg);
+    }
+}
@@ -0,0 +1,94 @@
+package io.compgen.common;
+
+import java.util.zip.Deflater;
+
+import io.compgen.common.io.WriteBehindOutputStream;
+
+/**
+ * Options for FileUtils.openOutputStream(name, options).
+ *
+ * Ex: FileUtils.openOutputStream("out.txt.gz", new OutputOptions().async(true).blockCompress(true))
+ *
+ * compress      - always gzip the output (otherwise, only for names ending in .gz)
+ * blockCompress - write gzip output as independent blocks (BGZF), compressed in parallel
+ * threads       - number of threads for block compression
+ * level         - gzip compression level
+ * async         - compress and write on a background thread (see WriteBehindOutputStream)
+ * bufferSize    - size of each buffer handed to the background thread
+ * buffers       - max number of buffers (queue depth) for the background thread
+ */
+public class OutputOptions {
+	private boolean compress = false;
+	private boolean blockCompress = false;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int level = Deflater.DEFAULT_COMPRESSION;
+	private boolean async = false;
+	private int bufferSize = WriteBehindOutputStream.DEFAULT_BUFFERSIZE;
+	private int buffers = WriteBehindOutputStream.DEFAULT_BUFFERS;
+
+	public OutputOptions() {
+	}
+
+	public OutputOptions compress(boolean compress) {
+		this.compress = compress;
+		return this;
+	}
+
+	public OutputOptions blockCompress(boolean blockCompress) {
+		this.blockCompress = blockCompress;
+		return this;
+	}
+
+	public OutputOptions threads(int threads) {
+		this.threads = threads;
+		return this;
+	}
+
+	public OutputOptions level(int level) {
+		this.level = level;
+		return this;
+	}
+
+	public OutputOptions async(boolean async) {
+		this.async = async;
+		return this;
+	}
+
+	public OutputOptions bufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+		return this;
+	}
+
+	public OutputOptions buffers(int buffers) {
+		this.buffers = buffers;
+		return this;
+	}
+
+	public boolean isCompress() {
+		return compress;
+	}
+
+	public boolean isBlockCompress() {
+		return blockCompress;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public int getLevel() {
+		return level;
+	}
+
+	public boolean isAsync() {
+		return async;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public int getBuffers() {
+		return buffers;
+	}
+}
@@ -3,6 +3,7 @@ package io.compgen.common;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 
 public class StringLineReader extends AbstractLineReader<String> {
     public StringLineReader(InputStream is) {
@@ -16,6 +17,37 @@ public class StringLineReader extends AbstractLineReader<String> {
         super(filename);
     }
 
+    public StringLineReader(String filename, int decompressThreads) throws IOException {
+        super(filename, decompressThreads);
+    }
+
+    public StringLineReader(String filename, Charset charset) throws IOException {
+        super(filename, charset);
+    }
+
+    public StringLineReader(String filename, Charset charset, int decompressThreads) throws IOException {
+        super(filename, charset, decompressThreads);
+    }
+
+    private StringLineReader(FileChannel channel, String name, Charset charset) {
+        super(channel, name, charset);
+    }
+
+    /**
+     * Start reading an uncompressed file at a byte offset. If offset isn't the start of a
+     * line, reading starts at the next line.
+     */
+    public static StringLineReader atOffset(String filename, Charset charset, long offset) throws IOException {
+        return new StringLineReader(openAtOffset(filename, offset), filename, charset);
+    }
+
+    /**
+     * Start reading an uncompressed file at a line (0-based), using index to find it.
+     */
+    public static StringLineReader atLine(String filename, Charset charset, LineIndex index, long line) throws IOException {
+        return new StringLineReader(openAtLine(filename, index, line), filename, charset);
+    }
+
     protected String convertLine(String line) {
         return line;
     }
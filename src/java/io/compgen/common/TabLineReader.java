@@ -0,0 +1,90 @@
+package io.compgen.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import io.compgen.common.progress.FileChannelStats;
+import io.compgen.common.progress.ProgressMessage;
+import io.compgen.common.progress.ProgressUtils;
+
+/**
+ * Reads a tab-delimited (or other delimited) file one line at a time, as a FieldCursor. This
+ * avoids line.split("\t"), which makes a String for every column, even the ones that aren't
+ * used. Columns can be parsed with getInt(col), getDouble(col), etc.
+ *
+ * The same FieldCursor is returned for every line, so it is only valid until the next line is
+ * read (see ByteLineReader).
+ */
+public class TabLineReader implements Iterable<FieldCursor> {
+    private final ByteLineReader reader;
+    private final FieldCursor cursor;
+
+    public TabLineReader(String filename) throws IOException {
+        this(filename, '\t');
+    }
+
+    public TabLineReader(String filename, char delim) throws IOException {
+        this(new ByteLineReader(filename), delim);
+    }
+
+    public TabLineReader(InputStream is) {
+        this(new ByteLineReader(is), '\t');
+    }
+
+    public TabLineReader(ByteLineReader reader, char delim) {
+        this.reader = reader;
+        this.cursor = new FieldCursor(delim);
+    }
+
+    /**
+     * @return the next line, or null at the end of the file
+     */
+    public FieldCursor readLine() throws IOException {
+        ByteLine line = reader.readLine();
+        if (line == null) {
+            return null;
+        }
+        return cursor.set(line);
+    }
+
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    public boolean isClosed() {
+        return reader.isClosed();
+    }
+
+    @Override
+    public Iterator<FieldCursor> iterator() {
+        final Iterator<ByteLine> it = reader.iterator();
+        return new Iterator<FieldCursor>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public FieldCursor next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return cursor.set(it.next());
+            }
+
+            @Override
+            public void remove() {
+            }
+        };
+    }
+
+    public Iterator<FieldCursor> progress() {
+        return progress(null);
+    }
+
+    public Iterator<FieldCursor> progress(ProgressMessage<FieldCursor> msg) {
+        return ProgressUtils.getIterator(reader.name, iterator(), new FileChannelStats(reader.channel), msg);
+    }
+}
@@ -6,6 +6,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 public class TabWriter {
@@ -13,35 +14,80 @@ public class TabWriter {
     final private Charset charset;
     final private String delim = "\t";
     private String line = "";
+
+    // For US-ASCII and ISO-8859-1, chars are encoded directly (see encode())
+    final private int maxChar;
+    private byte[] bytes = null;
     
     
     public TabWriter() {
-        this.out = System.out;
-        this.charset = Charset.defaultCharset();
+        this(Charset.defaultCharset());
     }
 
     public TabWriter(String filename) throws FileNotFoundException {
+        this(filename, Charset.defaultCharset());
+    }
+
+    public TabWriter(String filename, Charset charset) throws FileNotFoundException {
         this.out = new BufferedOutputStream(new FileOutputStream(filename));
-        this.charset = Charset.defaultCharset();
+        this.charset = charset;
+        this.maxChar = maxChar(charset);
     }
 
     public TabWriter(OutputStream out) {
-        this.out = new BufferedOutputStream(out);
-        this.charset = Charset.defaultCharset();
+        this(out, Charset.defaultCharset());
     }
 
     public TabWriter(Charset charset) {
         this.out = System.out;
         this.charset = charset;
+        this.maxChar = maxChar(charset);
     }
 
     public TabWriter(OutputStream out, Charset charset) {
         this.out = new BufferedOutputStream(out);
         this.charset = charset;
+        this.maxChar = maxChar(charset);
+    }
+
+    private static int maxChar(Charset charset) {
+        if (charset.equals(StandardCharsets.US_ASCII)) {
+            return 0x7F;
+        } else if (charset.equals(StandardCharsets.ISO_8859_1)) {
+            return 0xFF;
+        }
+        return -1;
+    }
+
+    /**
+     * Write s to the output. Single byte charsets are encoded with a simple loop (unmappable
+     * chars are written as '?', the same as String.getBytes()).
+     */
+    private void encode(String s) throws IOException {
+        if (maxChar == -1) {
+            out.write(s.getBytes(charset));
+            return;
+        }
+        if (bytes == null || bytes.length < s.length()) {
+            bytes = new byte[Math.max(1024, s.length() * 2)];
+        }
+        int len = 0;
+        for (int i=0; i<s.length(); i++) {
+            char c = s.charAt(i);
+            if (c <= maxChar) {
+                bytes[len++] = (byte) c;
+            } else {
+                if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    i++;
+                }
+                bytes[len++] = '?';
+            }
+        }
+        out.write(bytes, 0, len);
     }
 
     public void write_line(String line) throws IOException {
-        out.write((line+"\n").getBytes(charset));
+        encode(line+"\n");
     }
     
     public void write(String...vals) {
@@ -73,7 +119,7 @@ public class TabWriter {
     public void eol() throws IOException {
         if (!line.equals("")){
             line = line + "\n";
-            out.write(line.getBytes(charset));
+            encode(line);
             line = "";
         }
     }
@@ -8,10 +8,20 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.zip.DeflaterInputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import io.compgen.common.io.DataIO;
 
@@ -29,19 +39,67 @@ import io.compgen.common.io.DataIO;
 // eventually, there should be a vacuum command to rewrite the log to remove
 // deleted entries
 //
+// Block-compressed logs (flag 0x4) group records into ~64KB blocks:
+//
+// uint32 compressed_len
+// uint32 uncompressed_len
+// byte[compressed_len] deflated records (same record format as above)
+//
+// New logs (flag 0x8) frame each record (or block) so that torn writes can be detected
+// and dropped when the log is opened:
+//
+// uint32 record_len
+// byte[record_len] record
+// uint32 crc32(record)
+//
+// Blocks are framed by their existing lengths, followed by a uint32 crc32 of the
+// compressed data.
+//
+// For block-compressed logs, index positions are virtual offsets:
+// (block file offset << 16) | offset of the record within the uncompressed block
+//
+// With hashIndex, the in-memory index only holds a 64-bit hash of the serialized key
+// and the packed record position (in primitive arrays). The key stored on disk is
+// checked on each hit to resolve hash collisions. Keys must serialize to the same
+// bytes each time for this to work (String, Integer, Long, etc).
+//
+// Read-only caches (openReadOnly) hold a shared lock on the log, so a writer won't
+// truncate a torn tail while other processes are reading it. Readers of the same file
+// in one JVM share a single reference-counted lock (see SharedLock).
+//
 // Note: This is better used in the context of a TieredCache with a LRUCache in front.
 
 public class FileBackedCache<K extends Serializable,V extends Serializable> implements Cache<K, V> {
+	public static final int BLOCK_SIZE = 64 * 1024;
+	public static final int BLOCK_CACHE_SIZE = 16;
+
+	// flag for a removed key in a hashIndex position
+	private static final long REMOVED = 0x8000000000000000L;
 
 	protected final RandomAccessFile raf;
 	protected boolean compress;
 	protected boolean timestamp;
+	protected boolean blockCompress;
+	protected boolean hashIndex;
+	protected boolean framed;
+	protected long dataStart;
+	protected final boolean readOnly;
+
+	// read-only caches hold a shared lock on the log and track how far it has been indexed
+	private SharedLock sharedLock = null;
+	private long indexedEnd = -1;
 	protected long maxAge=-1;
 	
 	// index is stored in memory
 	// key value-start length
 	
 	protected Map<K, Long> index = new HashMap<K, Long>();
+	private LongHashIndex hashedIndex = null;
+
+	// pending (not yet written) block and recently decompressed blocks
+	private BlockBuffer block = null;
+	private BlockBuffer record = null;
+	private LRUCache<Long, byte[]> blockCache = null;
 	
 	public FileBackedCache(String filename) throws IOException {
 		this(new File(filename), false, false);
@@ -68,27 +126,102 @@ public class FileBackedCache<K extends Serializable,V extends Serializable> impl
 	}
 	
 	public FileBackedCache(File file, boolean compress, boolean timestamp, long maxAgeSecs) throws IOException {
+		this(file, compress, timestamp, maxAgeSecs, false);
+	}
+
+	public FileBackedCache(File file, boolean compress, boolean timestamp, long maxAgeSecs, boolean blockCompress) throws IOException {
+		this(file, compress, timestamp, maxAgeSecs, blockCompress, false);
+	}
+
+	/**
+	 *
+	 * @param file
+	 * @param compress - deflate each key and value individually
+	 * @param timestamp - store a timestamp with each record (required for maxAgeSecs)
+	 * @param maxAgeSecs - records older than this are treated as missing (-1 to keep forever)
+	 * @param blockCompress - group records into ~64KB blocks that are compressed together.
+	 *                        This has a much better ratio for small records and replaces per-record
+	 *                        compression. Only used when creating a new file.
+	 * @param hashIndex - keep only a hash of each key in memory (~23 bytes/key) instead of the
+	 *                    key object. Keys are verified from disk on a hit, so lookups are slower,
+	 *                    but very large caches can be used with a small heap.
+	 * @throws IOException
+	 */
+	public FileBackedCache(File file, boolean compress, boolean timestamp, long maxAgeSecs, boolean blockCompress, boolean hashIndex) throws IOException {
+		this(file, compress, timestamp, maxAgeSecs, blockCompress, hashIndex, false);
+	}
+
+	/**
+	 * Open an existing cache as read-only. Many processes can read the same cache at once,
+	 * while (at most) one process writes to it. Records added by the writer are picked up
+	 * with refresh() (or automatically on a cache miss).
+	 *
+	 * @param file
+	 * @param maxAgeSecs - records older than this are treated as missing (-1 to keep forever)
+	 * @param hashIndex - see FileBackedCache(File, boolean, boolean, long, boolean, boolean)
+	 * @throws IOException
+	 */
+	public static <K extends Serializable, V extends Serializable> FileBackedCache<K, V> openReadOnly(File file, long maxAgeSecs, boolean hashIndex) throws IOException {
+		return new FileBackedCache<K, V>(file, false, false, maxAgeSecs, false, hashIndex, true);
+	}
+
+	public static <K extends Serializable, V extends Serializable> FileBackedCache<K, V> openReadOnly(File file) throws IOException {
+		return openReadOnly(file, -1, false);
+	}
+
+	public static <K extends Serializable, V extends Serializable> FileBackedCache<K, V> openReadOnly(String filename) throws IOException {
+		return openReadOnly(new File(filename), -1, false);
+	}
+
+	protected FileBackedCache(File file, boolean compress, boolean timestamp, long maxAgeSecs, boolean blockCompress, boolean hashIndex, boolean readOnly) throws IOException {
 		
 		this.maxAge = maxAgeSecs;
+		this.hashIndex = hashIndex;
+		this.readOnly = readOnly;
+		if (hashIndex) {
+			this.index = null;
+			this.hashedIndex = new LongHashIndex();
+		}
 
-		if (!file.exists()) {
-			this.compress = compress;
+		if (readOnly) {
+			this.sharedLock = SharedLock.acquire(file);
+			RandomAccessFile f = null;
+			try {
+				f = new RandomAccessFile(file, "r");
+				this.raf = f;
+				read();
+			} catch (IOException e) {
+				sharedLock.release(f);
+				throw e;
+			}
+		} else if (!file.exists()) {
+			this.compress = compress && !blockCompress;
 			this.timestamp = timestamp;
+			this.blockCompress = blockCompress;
+			this.framed = true;
 			this.raf = new RandomAccessFile(file, "rw");
 			writeHeader();
+			this.dataStart = raf.getFilePointer();
+			initBlocks();
 		} else {
 			this.raf = new RandomAccessFile(file, "rw");
 			read();
 		}
 	}
+
+	private void initBlocks() {
+		if (blockCompress) {
+			block = new BlockBuffer();
+			blockCache = new LRUCache<Long, byte[]>(BLOCK_CACHE_SIZE);
+		}
+	}
 	
 	private void read() throws IOException {
 		raf.seek(0);
 		byte[] magic = DataIO.readRawBytes(raf, 4);
-		assert magic[0] == 'C';
-		assert magic[1] == 'G';
-		assert magic[2] == 'C';
-		assert magic[3] == 1;
+		if (magic == null || magic[0] != 'C' || magic[1] != 'G' || magic[2] != 'C' || magic[3] != 1) {
+			throw new IOException("Not a valid FileBackedCache file");
+		}
 		
 //		System.err.println("magic: " + StringUtils.byteArrayToString(magic));
 		
@@ -97,73 +230,322 @@ public class FileBackedCache<K extends Serializable,V extends Serializable> impl
 		byte compressByte = (byte) DataIO.readByte(raf);
 		this.compress = (compressByte & 0x1) == 0x1;
 		this.timestamp = (compressByte & 0x2) == 0x2;
+		this.blockCompress = (compressByte & 0x4) == 0x4;
+		this.framed = (compressByte & 0x8) == 0x8;
 //		System.err.println("compress: " + compressByte);
 		
-		raf.seek(4 + headerLen + 4);
+		initBlocks();
+		this.dataStart = 4 + headerLen + 4;
+
+		indexedEnd = scan(dataStart, true);
+		if (!readOnly && indexedEnd < raf.length()) {
+			// torn record(s) at the end of the log (from a crash mid-write?)
+			FileLock lock = null;
+			try {
+				lock = raf.getChannel().tryLock(0, Long.MAX_VALUE, false);
+			} catch (OverlappingFileLockException e) {
+				lock = null;
+			}
+			if (lock == null) {
+				throw new IOException("FileBackedCache is truncated or corrupt after position "+indexedEnd+", but can't be repaired while it is open by readers.");
+			}
+			System.err.println("Warning: FileBackedCache is truncated or corrupt after position "+indexedEnd+", truncating "+(raf.length() - indexedEnd)+" bytes.");
+			raf.setLength(indexedEnd);
+			lock.release();
+		}
+	}
 
+	/**
+	 * For read-only caches, index any new records that have been added to the log (by
+	 * another process) since it was last read. Incomplete records at the end of the log
+	 * are left for the next refresh.
+	 *
+	 * @return true if new records were found
+	 * @throws IOException
+	 */
+	public boolean refresh() throws IOException {
+		if (!readOnly || raf.length() == indexedEnd) {
+			return false;
+		}
+		long end = scan(indexedEnd, true);
+		boolean found = end > indexedEnd;
+		indexedEnd = end;
+		return found;
+	}
+
+	/**
+	 * Check that all of the records in the log are complete and (if the log has checksums)
+	 * that they are valid. Pending block-compressed records aren't included.
+	 *
+	 * @return true if the log is valid
+	 * @throws IOException
+	 */
+	public boolean verify() throws IOException {
+		return scan(dataStart, false) == raf.length();
+	}
+
+	/**
+	 * Reads through all of the records in the log, stopping at the first record that is
+	 * incomplete (or has a bad checksum).
+	 *
+	 * @param start - position of the first record to read
+	 * @param indexRecords - add the records to the index
+	 * @return the position of the end of the last valid record
+	 * @throws IOException
+	 */
+	private long scan(long start, boolean indexRecords) throws IOException {
+		long length = raf.length();
+		long pos = start;
 		try {
-		
-			while (raf.getFilePointer() < raf.length()) {
+			while (pos < length) {
+				long next;
+				if (blockCompress) {
+					next = scanBlock(pos, length, indexRecords);
+				} else if (framed) {
+					next = scanFramedRecord(pos, length, indexRecords);
+				} else {
+					next = scanRecord(pos, length, indexRecords);
+				}
+				if (next < 0) {
+					break;
+				}
+				pos = next;
+			}
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e);
+		}
+		return pos;
+	}
+
+	/**
+	 * @return the position of the next record, or -1 if this record isn't valid
+	 */
+	private long scanRecord(long pos, long length, boolean indexRecords) throws IOException, ClassNotFoundException {
+		raf.seek(pos);
+		if (pos + (timestamp ? 12 : 4) > length) {
+			return -1;
+		}
+
+		boolean expired = false;
+		if (timestamp) {
+			long tstamp = DataIO.readUint64(raf);
+			expired = isExpired(tstamp);
+		}
+		int keyLen = (int) (DataIO.readUint32(raf) & 0x7FFFFFFF);
+		if (raf.getFilePointer() + keyLen + 4 > length) {
+			return -1;
+		}
+		byte[] keyBytes = DataIO.readRawBytes(raf, keyLen);
+
+		int valLen = (int) (DataIO.readUint32(raf) & 0x7FFFFFFF);
+		if (raf.getFilePointer() + valLen > length) {
+			return -1;
+		}
+
+		if (indexRecords && !expired) {
+			indexRecord(null, keyBytes, 0, keyLen, pos, valLen == 0);
+		}
+		return raf.getFilePointer() + valLen;
+	}
+
+	/**
+	 * @return the position of the next record, or -1 if this record isn't valid
+	 */
+	private long scanFramedRecord(long pos, long length, boolean indexRecords) throws IOException, ClassNotFoundException {
+		if (pos + 4 > length) {
+			return -1;
+		}
+		raf.seek(pos);
+		long bodyLen = DataIO.readUint32(raf);
+		long bodyPos = pos + 4;
+		if (bodyLen > Integer.MAX_VALUE - 8 || bodyPos + bodyLen + 4 > length) {
+			return -1;
+		}
+
+		byte[] body = DataIO.readRawBytes(raf, (int) bodyLen);
+		long crc = DataIO.readUint32(raf);
+		if (crc32(body, 0, body.length) != crc) {
+			return -1;
+		}
+
+		ByteBuffer buf = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+		if (buf.remaining() < (timestamp ? 12 : 4)) {
+			return -1;
+		}
+		boolean expired = false;
+		if (timestamp) {
+			expired = isExpired(buf.getLong());
+		}
+		int keyLen = buf.getInt() & 0x7FFFFFFF;
+		int keyOff = buf.position();
+		if (keyLen > buf.remaining() - 4) {
+			return -1;
+		}
+		buf.position(keyOff + keyLen);
+		int valLen = buf.getInt() & 0x7FFFFFFF;
+
+		if (indexRecords && !expired) {
+			// index points to the record body (after the frame length)
+			indexRecord(null, body, keyOff, keyLen, bodyPos, valLen == 0);
+		}
+		return bodyPos + bodyLen + 4;
+	}
+
+	/**
+	 * @return the position of the next block, or -1 if this block isn't valid
+	 */
+	private long scanBlock(long blockPos, long length, boolean indexRecords) throws IOException, ClassNotFoundException {
+		if (blockPos + 8 > length) {
+			return -1;
+		}
+		raf.seek(blockPos);
+		long compLen = DataIO.readUint32(raf);
+		long next = blockPos + 8 + compLen + (framed ? 4 : 0);
+		if (compLen > Integer.MAX_VALUE - 8 || next > length) {
+			return -1;
+		}
+
+		byte[] data;
+		try {
+			data = readBlock(blockPos);
+		} catch (IOException e) {
+			return -1;
+		}
+
+		if (indexRecords) {
+			ByteBuffer buf = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+			while (buf.hasRemaining()) {
+				int off = buf.position();
+				// a record that runs past the end of the block means the block is torn
+				if (buf.remaining() < (timestamp ? 12 : 4)) {
+					return -1;
+				}
 				boolean expired = false;
-				long pos = raf.getFilePointer();
-//				System.err.println(pos);
 				if (timestamp) {
-					long tstamp = DataIO.readUint64(raf);
-					
-					if (maxAge > 0) {
-						long ageMillis = System.currentTimeMillis() - tstamp;
-						if (maxAge * 1000 < ageMillis) {
-							expired = true;
-						}
-					}				
+					expired = isExpired(buf.getLong());
 				}
-				long keyLenL = DataIO.readUint32(raf);
-				if (keyLenL > 0x7FFFFFFF) {
-					System.err.println("Error! key too big!");
+				int keyLen = buf.getInt() & 0x7FFFFFFF;
+				int keyOff = buf.position();
+				if (keyLen > buf.remaining() - 4) {
+					return -1;
 				}
-				int keyLen = (int) (keyLenL & 0x7FFFFFFF);
-//				System.err.println("  key_len: "+ keyLenL+" => (int) " + keyLen);
-				byte[] keyBytes = DataIO.readRawBytes(raf, keyLen);
-//				System.err.println("    key[]: "+ keyBytes);
-
-				long valLenL = DataIO.readUint32(raf);
-				if (valLenL > 0x7FFFFFFF) {
-					System.err.println("Error! value too big!");
+				buf.position(keyOff + keyLen);
+				int valLen = buf.getInt() & 0x7FFFFFFF;
+				if (valLen > buf.remaining()) {
+					return -1;
 				}
+				buf.position(buf.position() + valLen);
 
-				int valLen = (int) (valLenL & 0x7FFFFFFF);
-//				System.err.println("  val_len: "+ valLen);
-				
-				raf.skipBytes(valLen);
-				
-				ByteArrayInputStream bis = new ByteArrayInputStream(keyBytes);
-				ObjectInputStream ois;
-				if (this.compress) {
-						ois = new ObjectInputStream(new DeflaterInputStream(bis));
-				} else {
-					ois = new ObjectInputStream(bis);
+				if (!expired) {
+					indexRecord(null, data, keyOff, keyLen, (blockPos << 16) | off, valLen == 0);
 				}
-				@SuppressWarnings("unchecked")
-				K key = (K) ois.readObject();
-				ois.close();
+			}
+		}
+		return next;
+	}
 
-				if (!expired) {
-					if (valLen == 0) {
-						index.put(key,  null);
-					} else {
-						index.put(key,  pos);
-					}
+	private static long crc32(byte[] buf, int off, int len) {
+		CRC32 crc = new CRC32();
+		crc.update(buf, off, len);
+		return crc.getValue();
+	}
+
+	/**
+	 * Reads and inflates the block starting at the given file position. The file pointer is
+	 * left at the start of the next block.
+	 */
+	private byte[] readBlock(long blockPos) throws IOException {
+		raf.seek(blockPos);
+		int compLen = (int) (DataIO.readUint32(raf) & 0x7FFFFFFF);
+		int rawLen = (int) (DataIO.readUint32(raf) & 0x7FFFFFFF);
+		byte[] comp = DataIO.readRawBytes(raf, compLen);
+		if (comp == null) {
+			throw new IOException("Truncated block at position: "+blockPos);
+		}
+		if (framed) {
+			long crc = DataIO.readUint32(raf);
+			if (crc32(comp, 0, compLen) != crc) {
+				throw new IOException("Invalid block checksum at position: "+blockPos);
+			}
+		}
+
+		byte[] data = new byte[rawLen];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(comp);
+			int total = 0;
+			while (total < rawLen && !inflater.finished()) {
+				int n = inflater.inflate(data, total, rawLen - total);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
 				}
-				
-//				System.err.println("Found key: " + key + ", pos: "+pos+", val_len: "+valLen);
-				
+				total += n;
 			}
-		} catch (ClassNotFoundException e) {
+			if (total != rawLen) {
+				throw new IOException("Invalid block at position: "+blockPos);
+			}
+		} catch (DataFormatException e) {
 			throw new IOException(e);
+		} finally {
+			inflater.end();
+		}
+		return data;
+	}
+
+	/**
+	 * Compresses the pending block (if any) and writes it to the end of the file.
+	 */
+	private void writeBlock() throws IOException {
+		if (block == null || block.size() == 0) {
+			return;
+		}
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(block.size() / 2);
+		try {
+			deflater.setInput(block.buffer(), 0, block.size());
+			deflater.finish();
+			byte[] buf = new byte[BLOCK_SIZE];
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buf);
+				bos.write(buf, 0, n);
+			}
+		} finally {
+			deflater.end();
+		}
+
+		raf.seek(raf.length());
+		DataIO.writeUint32(raf, bos.size());
+		DataIO.writeUint32(raf, block.size());
+		byte[] comp = bos.toByteArray();
+		DataIO.writeRawBytes(raf, comp);
+		if (framed) {
+			DataIO.writeUint32(raf, crc32(comp, 0, comp.length));
 		}
+
+		block.reset();
 	}
+
+	/**
+	 * Writes any pending records to disk. This is only needed for block-compressed
+	 * caches, where records are buffered until a full block is ready.
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		writeBlock();
+	}
+
 	public void close() throws IOException {
-		this.raf.close();
+		if (readOnly) {
+			// the file is closed once the last reader of it in this JVM is closed
+			if (sharedLock != null) {
+				sharedLock.release(raf);
+				sharedLock = null;
+			}
+		} else {
+			flush();
+			this.raf.close();
+		}
 	}
 	
 	private void writeHeader() throws IOException {
@@ -182,61 +564,245 @@ public class FileBackedCache<K extends Serializable,V extends Serializable> impl
 		if (timestamp) {
 			flag |= 0x2;
 		}
+		if (blockCompress) {
+			flag |= 0x4;
+		}
+		if (framed) {
+			flag |= 0x8;
+		}
 		DataIO.writeRawByte(raf,(byte)flag);
 	}
+
+	private boolean isExpired(long tstamp) {
+		if (maxAge > 0) {
+			long ageMillis = System.currentTimeMillis() - tstamp;
+			if (maxAge * 1000 < ageMillis) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private byte[] serialize(Object obj) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ObjectOutputStream oos;
+		if (compress) {
+			oos = new ObjectOutputStream(new DeflaterOutputStream(bos));
+		} else {
+			oos = new ObjectOutputStream(bos);
+		}
+		oos.writeObject(obj);
+		oos.flush();
+		oos.close();
+		return bos.toByteArray();
+	}
+
+	private Object deserialize(byte[] buf, int off, int len) throws IOException, ClassNotFoundException {
+		ByteArrayInputStream bis = new ByteArrayInputStream(buf, off, len);
+		ObjectInputStream ois;
+		if (compress) {
+			ois = new ObjectInputStream(new InflaterInputStream(bis));
+		} else {
+			ois = new ObjectInputStream(bis);
+		}
+		Object obj = ois.readObject();
+		ois.close();
+		return obj;
+	}
 	
+	/**
+	 * Adds a record to the in-memory index.
+	 *
+	 * @param key - the key (if null, it will be deserialized from keyBytes, if needed)
+	 * @param keyBytes - the serialized key
+	 * @param pos - the record position
+	 * @param removed - is this record a removal?
+	 */
+	private void indexRecord(K key, final byte[] keyBytes, final int keyOff, final int keyLen, long pos, boolean removed) throws IOException, ClassNotFoundException {
+		if (hashIndex) {
+			long hash = LongHashIndex.hash(keyBytes, keyOff, keyLen);
+			hashedIndex.put(hash, removed ? pos | REMOVED : pos, new LongHashIndex.KeyMatcher() {
+				@Override
+				public boolean matches(long value) throws IOException {
+					return keyMatches(value & ~REMOVED, keyBytes, keyOff, keyLen);
+				}});
+			return;
+		}
+
+		if (key == null) {
+			@SuppressWarnings("unchecked")
+			K k = (K) deserialize(keyBytes, keyOff, keyLen);
+			key = k;
+		}
+		if (removed) {
+			index.put(key, null);
+		} else {
+			index.put(key, pos);
+		}
+	}
+
+	/**
+	 * Finds the position of the most recent record for a key.
+	 *
+	 * @return 0 if there is no record for the key, otherwise the position. If the most recent
+	 *         record is a removal, the REMOVED bit is set.
+	 */
+	private long find(K k) throws IOException {
+		long pos = findIndexed(k);
+		if (pos == 0 && readOnly && refresh()) {
+			// the writer may have added this key since we last looked
+			pos = findIndexed(k);
+		}
+		return pos;
+	}
+
+	private long findIndexed(K k) throws IOException {
+		if (hashIndex) {
+			final byte[] keyBytes = serialize(k);
+			long hash = LongHashIndex.hash(keyBytes, 0, keyBytes.length);
+			return hashedIndex.get(hash, new LongHashIndex.KeyMatcher() {
+				@Override
+				public boolean matches(long value) throws IOException {
+					return keyMatches(value & ~REMOVED, keyBytes, 0, keyBytes.length);
+				}});
+		}
+
+		if (!index.containsKey(k)) {
+			return 0;
+		}
+		Long pos = index.get(k);
+		if (pos == null) {
+			return REMOVED;
+		}
+		return pos;
+	}
+
+	/**
+	 * Reads the serialized key for the record at pos. The file pointer is left unchanged.
+	 */
+	private byte[] readKeyBytes(long pos) throws IOException {
+		if (blockCompress) {
+			byte[] data = blockData(pos >>> 16);
+			ByteBuffer buf = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+			buf.position((int) (pos & 0xFFFF));
+			if (timestamp) {
+				buf.getLong();
+			}
+			byte[] keyBytes = new byte[buf.getInt() & 0x7FFFFFFF];
+			buf.get(keyBytes);
+			return keyBytes;
+		}
+
+		long cur = raf.getFilePointer();
+		raf.seek(pos);
+		if (timestamp) {
+			raf.skipBytes(8);
+		}
+		int keyLen = (int) (DataIO.readUint32(raf) & 0x7FFFFFFF);
+		byte[] keyBytes = DataIO.readRawBytes(raf, keyLen);
+		raf.seek(cur);
+		return keyBytes;
+	}
+
+	private boolean keyMatches(long pos, byte[] keyBytes, int keyOff, int keyLen) throws IOException {
+		byte[] stored = readKeyBytes(pos);
+		if (stored == null || stored.length != keyLen) {
+			return false;
+		}
+		for (int i=0; i<keyLen; i++) {
+			if (stored[i] != keyBytes[keyOff + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	public void put(K key, V val) {		
+		if (readOnly) {
+			throw new UnsupportedOperationException("FileBackedCache is read-only");
+		}
 		try {
-			ByteArrayOutputStream bos = new ByteArrayOutputStream();
-			ObjectOutputStream oos;
-			if (compress) {
-					oos = new ObjectOutputStream(new DeflaterOutputStream(bos));
-			} else {
-				oos = new ObjectOutputStream(bos);
-			}
-			oos.writeObject(key);
-			oos.flush();
-			oos.close();
-	
-			byte[] keybytes = bos.toByteArray();
-			raf.seek(raf.length());
-			
+			byte[] keybytes = serialize(key);
 			byte[] valuebytes;
-			
+
 			if (val == null) {
-				// remove from cache
-				index.put(key, null);
 				valuebytes = new byte[0];
-
 			} else {
-				bos = new ByteArrayOutputStream();
-				if (compress) {
-					oos = new ObjectOutputStream(new DeflaterOutputStream(bos));
-				} else {
-					oos = new ObjectOutputStream(bos);
-				}
-				oos.writeObject(val);
-				oos.flush();
-				oos.close();
-				
-				valuebytes = bos.toByteArray();
-				index.put(key, raf.getFilePointer());
-			}				
+				valuebytes = serialize(val);
+			}
+	
+			if (blockCompress) {
+				putBlock(key, keybytes, valuebytes);
+				return;
+			}
+
+			// build the full record (and frame) so it is written in one call
+			if (record == null) {
+				record = new BlockBuffer(1024);
+			}
+			record.reset();
+			if (framed) {
+				// placeholder for the frame length
+				DataIO.writeUint32(record, 0);
+			}
 
 			if (timestamp) {
-				DataIO.writeUint64(raf, System.currentTimeMillis());
+				DataIO.writeUint64(record, System.currentTimeMillis());
 			}
 			
-			DataIO.writeUint32(raf, keybytes.length   & 0x7FFFFFFF);
-			DataIO.writeRawBytes(raf, keybytes);
-			DataIO.writeUint32(raf, valuebytes.length & 0x7FFFFFFF);
-			DataIO.writeRawBytes(raf, valuebytes);
+			DataIO.writeUint32(record, keybytes.length   & 0x7FFFFFFF);
+			DataIO.writeRawBytes(record, keybytes);
+			DataIO.writeUint32(record, valuebytes.length & 0x7FFFFFFF);
+			DataIO.writeRawBytes(record, valuebytes);
+
+			long pos = raf.length();
+			if (framed) {
+				int bodyLen = record.size() - 4;
+				record.setUint32(0, bodyLen);
+				DataIO.writeUint32(record, crc32(record.buffer(), 4, bodyLen));
+				// index points to the record body (after the frame length)
+				pos += 4;
+			}
+
+			raf.seek(raf.length());
+			raf.write(record.buffer(), 0, record.size());
+
+			// a null value removes the key from the cache
+			indexRecord(key, keybytes, 0, keybytes.length, pos, val == null);
 //			System.err.println("Writing key ("+keybytes.length+"): " + StringUtils.byteArrayToString(keybytes) + ", pos: "+raf.length()+", val_len: "+valuebytes.length);
 			
-		} catch (IOException e) {
+		} catch (IOException | ClassNotFoundException e) {
 			throw new RuntimeException(e);
 		}
 	}
+
+	private void putBlock(K key, byte[] keybytes, byte[] valuebytes) throws IOException, ClassNotFoundException {
+		// the pending block will be written at the current end of the file
+		long vpos = (raf.length() << 16) | block.size();
+
+		// an empty value removes the key from the cache
+		indexRecord(key, keybytes, 0, keybytes.length, vpos, valuebytes.length == 0);
+
+		if (timestamp) {
+			DataIO.writeUint64(block, System.currentTimeMillis());
+		}
+
+		DataIO.writeUint32(block, keybytes.length   & 0x7FFFFFFF);
+		DataIO.writeRawBytes(block, keybytes);
+		DataIO.writeUint32(block, valuebytes.length & 0x7FFFFFFF);
+		DataIO.writeRawBytes(block, valuebytes);
+
+		if (block.size() >= BLOCK_SIZE) {
+			writeBlock();
+		}
+	}
+
+	private void expire(K k) {
+		if (!readOnly) {
+			put(k, null);
+		}
+	}
+
 	@Override
 	public V remove(K k) {
 		V val = null;
@@ -249,24 +815,26 @@ public class FileBackedCache<K extends Serializable,V extends Serializable> impl
 
 	@Override
 	public V get(K k) {
-		if (!containsKey(k)) {
-			return null;
-		}
 		try {
-			Long pos = index.get(k);
+			long pos = find(k);
+			if (pos == 0 || (pos & REMOVED) != 0) {
+				return null;
+			}
+
+			if (blockCompress) {
+				return getBlock(k, pos);
+			}
+
 			raf.seek(pos);
 			long tstamp=0;
 //			System.err.println(pos);
 			if (timestamp) {
 				tstamp = DataIO.readUint64(raf);
 				
-				if (maxAge > 0) {
-					long ageMillis = System.currentTimeMillis() - tstamp;
-					if (maxAge * 1000 < ageMillis) {
-						// timed out
-						put(k, null);
-						return null;
-					}
+				if (isExpired(tstamp)) {
+					// timed out
+					expire(k);
+					return null;
 				}				
 			}
 			int keyLen = (int) (DataIO.readUint32(raf) & 0x7FFFFFFF);
@@ -274,17 +842,9 @@ public class FileBackedCache<K extends Serializable,V extends Serializable> impl
 			int valLen = (int) (DataIO.readUint32(raf) & 0x7FFFFFFF);
 			byte[] valBytes = DataIO.readRawBytes(raf, valLen);
 			
-			ByteArrayInputStream bis = new ByteArrayInputStream(valBytes);
-			ObjectInputStream ois;
-			if (compress) {
-					ois = new ObjectInputStream(new DeflaterInputStream(bis));
-			} else {
-				ois = new ObjectInputStream(bis);
-			}
 			@SuppressWarnings("unchecked")
-			V val = (V) ois.readObject();
+			V val = (V) deserialize(valBytes, 0, valLen);
 //			System.err.println("Found value: " + k + ", pos: "+pos+", value: "+val);
-			ois.close();
 			return val;
 			
 		} catch (IOException | ClassNotFoundException e) {
@@ -292,8 +852,69 @@ public class FileBackedCache<K extends Serializable,V extends Serializable> impl
 		}
 	}
 
+	private V getBlock(K k, long vpos) throws IOException, ClassNotFoundException {
+		int off = (int) (vpos & 0xFFFF);
+		byte[] data = blockData(vpos >>> 16);
+
+		ByteBuffer buf = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		buf.position(off);
+		if (timestamp) {
+			if (isExpired(buf.getLong())) {
+				// timed out
+				expire(k);
+				return null;
+			}
+		}
+		int keyLen = buf.getInt() & 0x7FFFFFFF;
+		buf.position(buf.position() + keyLen);
+		int valLen = buf.getInt() & 0x7FFFFFFF;
+
+		@SuppressWarnings("unchecked")
+		V val = (V) deserialize(data, buf.position(), valLen);
+		return val;
+	}
+
+	/**
+	 * Returns the uncompressed block at the given position (from the pending block, the
+	 * cache, or the file). The file pointer is left unchanged.
+	 */
+	private byte[] blockData(long blockPos) throws IOException {
+		if (blockPos == raf.length()) {
+			// record is still in the pending block
+			return block.buffer();
+		}
+		byte[] data = blockCache.get(blockPos);
+		if (data == null) {
+			long cur = raf.getFilePointer();
+			data = readBlock(blockPos);
+			blockCache.put(blockPos, data);
+			raf.seek(cur);
+		}
+		return data;
+	}
+
 	@Override
 	public void clear() {
+		if (hashIndex) {
+			// keys aren't kept in memory, so they need to be read back from disk
+			try {
+				List<K> keys = new ArrayList<K>();
+				for (long pos: hashedIndex.values()) {
+					if ((pos & REMOVED) == 0) {
+						byte[] keyBytes = readKeyBytes(pos);
+						@SuppressWarnings("unchecked")
+						K k = (K) deserialize(keyBytes, 0, keyBytes.length);
+						keys.add(k);
+					}
+				}
+				for (K k: keys) {
+					remove(k);
+				}
+			} catch (IOException | ClassNotFoundException e) {
+				throw new RuntimeException(e);
+			}
+			return;
+		}
 		for (K k: index.keySet()) {
 			remove(k);
 		}
@@ -301,6 +922,123 @@ public class FileBackedCache<K extends Serializable,V extends Serializable> impl
 
 	@Override
 	public boolean containsKey(K k) {
-		return index.containsKey(k) && index.get(k)!=null;
+		try {
+			long pos = find(k);
+			return pos != 0 && (pos & REMOVED) == 0;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Does this log have any record for the key (including a removal)?
+	 */
+	boolean hasRecord(K k) {
+		try {
+			return find(k) != 0;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Current size of the log file (excluding any pending block)
+	 */
+	public long length() throws IOException {
+		return raf.length();
+	}
+
+	/**
+	 * Growable byte buffer for the pending block that exposes the backing array, so
+	 * pending records can be read without copying.
+	 */
+	private static class BlockBuffer extends ByteArrayOutputStream {
+		private BlockBuffer() {
+			this(BLOCK_SIZE + (BLOCK_SIZE / 4));
+		}
+		private BlockBuffer(int size) {
+			super(size);
+		}
+		private byte[] buffer() {
+			return buf;
+		}
+		private void setUint32(int pos, long val) {
+			buf[pos]   = (byte) (val & 0xFF);
+			buf[pos+1] = (byte) (val >> 8 & 0xFF);
+			buf[pos+2] = (byte) (val >> 16 & 0xFF);
+			buf[pos+3] = (byte) (val >> 24 & 0xFF);
+		}
+	}
+
+	/**
+	 * Shared lock on a log, held for all of the read-only caches of that file in this JVM.
+	 * A JVM can only hold one lock on a file (a second lock() throws
+	 * OverlappingFileLockException), so readers share one lock, which is released when
+	 * the last reader is closed.
+	 *
+	 * On some platforms (Linux), closing any open file for the log releases all of the
+	 * JVM's locks on it, so the files of closed readers are kept open until the lock is
+	 * released.
+	 */
+	private static class SharedLock {
+		private static final Map<String, SharedLock> locks = new HashMap<String, SharedLock>();
+
+		private final String path;
+		private final RandomAccessFile raf;
+		private final FileLock lock;
+		private final List<RandomAccessFile> closed = new ArrayList<RandomAccessFile>();
+		private int refs = 0;
+
+		private SharedLock(String path, RandomAccessFile raf, FileLock lock) {
+			this.path = path;
+			this.raf = raf;
+			this.lock = lock;
+		}
+
+		private static SharedLock acquire(File file) throws IOException {
+			String path = file.getCanonicalPath();
+			synchronized (locks) {
+				SharedLock shared = locks.get(path);
+				if (shared == null) {
+					RandomAccessFile raf = new RandomAccessFile(file, "r");
+					try {
+						shared = new SharedLock(path, raf, raf.getChannel().lock(0, Long.MAX_VALUE, true));
+					} catch (OverlappingFileLockException e) {
+						raf.close();
+						throw new IOException("Can't lock FileBackedCache (it is locked by a writer in this JVM): "+path);
+					} catch (IOException e) {
+						raf.close();
+						throw e;
+					}
+					locks.put(path, shared);
+				}
+				shared.refs++;
+				return shared;
+			}
+		}
+
+		/**
+		 * @param readerFile - the reader's open file (closed with the lock), or null
+		 */
+		private void release(RandomAccessFile readerFile) throws IOException {
+			synchronized (locks) {
+				if (readerFile != null) {
+					closed.add(readerFile);
+				}
+				if (--refs > 0) {
+					return;
+				}
+				locks.remove(path);
+				try {
+					lock.release();
+				} finally {
+					for (RandomAccessFile f: closed) {
+						f.close();
+					}
+					closed.clear();
+					raf.close();
+				}
+			}
+		}
 	}
 }
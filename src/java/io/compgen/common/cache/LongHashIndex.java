@@ -0,0 +1,145 @@
+package io.compgen.common.cache;
+
+import java.io.IOException;
+
+/**
+ * Open-addressing (linear probing) map of 64-bit key hashes to packed file positions,
+ * stored in two primitive long[] arrays. This takes ~16 bytes per slot, regardless of
+ * the size of the keys.
+ *
+ * Different keys can share a hash, so the caller supplies a KeyMatcher that checks the
+ * actual key stored at a position (usually by reading it from disk). The matcher is
+ * only called when the hashes match.
+ *
+ * A value of 0 is used to mark an empty slot, so 0 isn't a valid value.
+ *
+ * @author mbreese
+ */
+class LongHashIndex {
+	public interface KeyMatcher {
+		public boolean matches(long value) throws IOException;
+	}
+
+	public static final int DEFAULT_CAPACITY = 1024;
+	public static final double LOAD_FACTOR = 0.7;
+
+	private long[] hashes;
+	private long[] values;
+	private int size = 0;
+	private int mask;
+
+	public LongHashIndex() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public LongHashIndex(int capacity) {
+		int cap = 16;
+		while (cap < capacity) {
+			cap = cap << 1;
+		}
+		this.hashes = new long[cap];
+		this.values = new long[cap];
+		this.mask = cap - 1;
+	}
+
+	private int slot(long hash) {
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	/**
+	 * @return the value for the key, or 0 if not found.
+	 */
+	public long get(long hash, KeyMatcher matcher) throws IOException {
+		int i = slot(hash);
+		while (values[i] != 0) {
+			if (hashes[i] == hash && matcher.matches(values[i])) {
+				return values[i];
+			}
+			i = (i + 1) & mask;
+		}
+		return 0;
+	}
+
+	/**
+	 * Adds or replaces the value for a key.
+	 */
+	public void put(long hash, long value, KeyMatcher matcher) throws IOException {
+		if (value == 0) {
+			throw new IllegalArgumentException("0 isn't a valid value");
+		}
+		int i = slot(hash);
+		while (values[i] != 0) {
+			if (hashes[i] == hash && matcher.matches(values[i])) {
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+
+		hashes[i] = hash;
+		values[i] = value;
+		size++;
+
+		if (size > values.length * LOAD_FACTOR) {
+			resize();
+		}
+	}
+
+	private void resize() {
+		if (values.length >= (1 << 30)) {
+			throw new IllegalStateException("Index is too large");
+		}
+		long[] oldHashes = hashes;
+		long[] oldValues = values;
+
+		hashes = new long[oldValues.length << 1];
+		values = new long[oldValues.length << 1];
+		mask = values.length - 1;
+
+		for (int j=0; j<oldValues.length; j++) {
+			if (oldValues[j] != 0) {
+				int i = slot(oldHashes[j]);
+				while (values[i] != 0) {
+					i = (i + 1) & mask;
+				}
+				hashes[i] = oldHashes[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return all of the (non-empty) values in the index
+	 */
+	public long[] values() {
+		long[] out = new long[size];
+		int j = 0;
+		for (int i=0; i<values.length; i++) {
+			if (values[i] != 0) {
+				out[j++] = values[i];
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * 64-bit hash (FNV-1a, with a murmur3 finalizer) of a byte array
+	 */
+	public static long hash(byte[] buf, int off, int len) {
+		long h = 0xcbf29ce484222325L;
+		for (int i=off; i<off+len; i++) {
+			h ^= (buf[i] & 0xFF);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
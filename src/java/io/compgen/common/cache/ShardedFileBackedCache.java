@@ -0,0 +1,326 @@
+package io.compgen.common.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+//
+// A set of FileBackedCache logs that keys are hashed across. Each shard has its own
+// log files, index, and lock, so writers for different shards don't contend on a
+// single file pointer.
+//
+// Files are named: {prefix}.{shard}.{segment}
+//
+// When the active segment for a shard grows past maxSegmentSize, a new segment is
+// started. Older segments are kept open for lookups and the newest record for a
+// key (in the newest segment) wins. clear() deletes all of a shard's segments and
+// starts a new one.
+//
+// Keys are assigned to shards by hashCode(), so keys must have a hashCode that is
+// stable across JVMs (String, Integer, Long, etc), and the number of shards must
+// be the same each time the cache is opened.
+//
+
+public class ShardedFileBackedCache<K extends Serializable,V extends Serializable> implements Cache<K, V> {
+	public static final long DEFAULT_MAX_SEGMENT_SIZE = 1024L * 1024 * 1024;
+
+	protected final File parent;
+	protected final String prefix;
+	protected final long maxSegmentSize;
+	protected final boolean compress;
+	protected final boolean timestamp;
+	protected final long maxAge;
+	protected final boolean blockCompress;
+	protected final boolean hashIndex;
+
+	protected final int numShards;
+	private final List<Shard> shards = new ArrayList<Shard>();
+
+	public ShardedFileBackedCache(String prefix, int numShards) throws IOException {
+		this(prefix, numShards, DEFAULT_MAX_SEGMENT_SIZE);
+	}
+
+	public ShardedFileBackedCache(String prefix, int numShards, long maxSegmentSize) throws IOException {
+		this(prefix, numShards, maxSegmentSize, false, false, -1, false);
+	}
+
+	public ShardedFileBackedCache(String prefix, int numShards, long maxSegmentSize, boolean compress, boolean timestamp, long maxAgeSecs) throws IOException {
+		this(prefix, numShards, maxSegmentSize, compress, timestamp, maxAgeSecs, false);
+	}
+
+	public ShardedFileBackedCache(String prefix, int numShards, long maxSegmentSize, boolean compress, boolean timestamp, long maxAgeSecs, boolean blockCompress) throws IOException {
+		this(prefix, numShards, maxSegmentSize, compress, timestamp, maxAgeSecs, blockCompress, false);
+	}
+
+	/**
+	 *
+	 * @param prefix - filename prefix for the log segments ({prefix}.{shard}.{segment})
+	 * @param numShards - number of independent shards (must be the same each time the cache is opened)
+	 * @param maxSegmentSize - start a new segment once the active segment for a shard is larger than this (bytes)
+	 * @param compress - see FileBackedCache
+	 * @param timestamp - see FileBackedCache
+	 * @param maxAgeSecs - see FileBackedCache
+	 * @param blockCompress - see FileBackedCache
+	 * @param hashIndex - see FileBackedCache
+	 * @throws IOException
+	 */
+	public ShardedFileBackedCache(String prefix, int numShards, long maxSegmentSize, boolean compress, boolean timestamp, long maxAgeSecs, boolean blockCompress, boolean hashIndex) throws IOException {
+		if (numShards < 1) {
+			throw new IllegalArgumentException("numShards must be > 0");
+		}
+
+		File prefixFile = new File(prefix).getAbsoluteFile();
+		this.parent = prefixFile.getParentFile();
+		this.prefix = prefixFile.getName();
+		this.maxSegmentSize = maxSegmentSize;
+		this.compress = compress;
+		this.timestamp = timestamp;
+		this.maxAge = maxAgeSecs;
+		this.blockCompress = blockCompress;
+		this.hashIndex = hashIndex;
+
+		this.numShards = numShards;
+		open();
+	}
+
+	/**
+	 * Opens (and indexes) all of the shards in parallel.
+	 */
+	private void open() throws IOException {
+		int[] segmentCounts = findSegments();
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(numShards, Runtime.getRuntime().availableProcessors()));
+		try {
+			List<Future<Shard>> futures = new ArrayList<Future<Shard>>();
+			for (int i=0; i<numShards; i++) {
+				final int shardNum = i;
+				final int segments = segmentCounts[i];
+				futures.add(pool.submit(new Callable<Shard>() {
+					@Override
+					public Shard call() throws Exception {
+						return new Shard(shardNum, segments);
+					}}));
+			}
+
+			for (Future<Shard> future: futures) {
+				try {
+					shards.add(future.get());
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					throw new IOException(e.getCause());
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Finds the number of existing segments for each shard
+	 */
+	private int[] findSegments() throws IOException {
+		int[] counts = new int[numShards];
+		File[] files = parent.listFiles();
+		if (files == null) {
+			return counts;
+		}
+
+		for (File f: files) {
+			String name = f.getName();
+			if (!name.startsWith(prefix + ".")) {
+				continue;
+			}
+			String[] spl = name.substring(prefix.length() + 1).split("\\.");
+			if (spl.length != 2) {
+				continue;
+			}
+			int shard;
+			int segment;
+			try {
+				shard = Integer.parseInt(spl[0]);
+				segment = Integer.parseInt(spl[1]);
+			} catch (NumberFormatException e) {
+				continue;
+			}
+
+			if (shard >= numShards) {
+				throw new IOException("Existing cache file: "+f+" doesn't match the number of shards ("+numShards+")");
+			}
+			counts[shard] = Math.max(counts[shard], segment + 1);
+		}
+		return counts;
+	}
+
+	private File segmentFile(int shard, int segment) {
+		return new File(parent, prefix + "." + shard + "." + segment);
+	}
+
+	private Shard shard(K k) {
+		return shards.get((k.hashCode() & 0x7FFFFFFF) % numShards);
+	}
+
+	@Override
+	public V get(K k) {
+		return shard(k).get(k);
+	}
+
+	@Override
+	public void put(K k, V v) {
+		shard(k).put(k, v);
+	}
+
+	@Override
+	public V remove(K k) {
+		return shard(k).remove(k);
+	}
+
+	@Override
+	public boolean containsKey(K k) {
+		return shard(k).containsKey(k);
+	}
+
+	@Override
+	public void clear() {
+		for (Shard shard: shards) {
+			shard.clear();
+		}
+	}
+
+	public void flush() throws IOException {
+		for (Shard shard: shards) {
+			shard.flush();
+		}
+	}
+
+	public void close() throws IOException {
+		for (Shard shard: shards) {
+			shard.close();
+		}
+	}
+
+	/**
+	 * All of the segments for one shard. All access to a shard is synchronized on the shard.
+	 */
+	private class Shard {
+		private final int shardNum;
+		private int nextSegment;
+
+		// oldest -> newest, the last segment is the active one.
+		private final List<FileBackedCache<K,V>> segments = new ArrayList<FileBackedCache<K,V>>();
+
+		private Shard(int shardNum, int existingSegments) throws IOException {
+			this.shardNum = shardNum;
+			this.nextSegment = Math.max(existingSegments, 1);
+			for (int i=0; i<existingSegments; i++) {
+				File f = segmentFile(shardNum, i);
+				if (f.exists()) {
+					segments.add(new FileBackedCache<K,V>(f, compress, timestamp, maxAge, blockCompress, hashIndex));
+				}
+			}
+			if (segments.isEmpty()) {
+				segments.add(new FileBackedCache<K,V>(segmentFile(shardNum, 0), compress, timestamp, maxAge, blockCompress, hashIndex));
+			}
+		}
+
+		private FileBackedCache<K,V> find(K k) {
+			for (int i=segments.size()-1; i>=0; i--) {
+				if (segments.get(i).hasRecord(k)) {
+					return segments.get(i);
+				}
+			}
+			return null;
+		}
+
+		private synchronized V get(K k) {
+			FileBackedCache<K,V> seg = find(k);
+			if (seg == null) {
+				return null;
+			}
+			return seg.get(k);
+		}
+
+		private synchronized boolean containsKey(K k) {
+			FileBackedCache<K,V> seg = find(k);
+			if (seg == null) {
+				return false;
+			}
+			return seg.containsKey(k);
+		}
+
+		private synchronized void put(K k, V v) {
+			FileBackedCache<K,V> active = segments.get(segments.size()-1);
+			active.put(k, v);
+
+			try {
+				if (active.length() > maxSegmentSize) {
+					roll();
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		private synchronized V remove(K k) {
+			V val = get(k);
+			if (val != null) {
+				put(k, null);
+			}
+			return val;
+		}
+
+		/**
+		 * Drop all of the segments and start a new (empty) active segment. Old segments are
+		 * deleted instead of adding removal records to them (only the active segment is
+		 * written to). The new segment keeps the next number, so if this is interrupted, any
+		 * segments left over are still older than it.
+		 */
+		private synchronized void clear() {
+			try {
+				for (FileBackedCache<K,V> seg: segments) {
+					seg.close();
+				}
+				segments.clear();
+				for (int i=0; i<nextSegment; i++) {
+					File f = segmentFile(shardNum, i);
+					if (f.exists() && !f.delete()) {
+						throw new IOException("Unable to delete cache file: "+f);
+					}
+				}
+				segments.add(new FileBackedCache<K,V>(segmentFile(shardNum, nextSegment++), compress, timestamp, maxAge, blockCompress, hashIndex));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		/**
+		 * Start a new active segment
+		 */
+		private void roll() throws IOException {
+			segments.get(segments.size()-1).flush();
+			segments.add(new FileBackedCache<K,V>(segmentFile(shardNum, nextSegment++), compress, timestamp, maxAge, blockCompress, hashIndex));
+		}
+
+		private synchronized void flush() throws IOException {
+			for (FileBackedCache<K,V> seg: segments) {
+				seg.flush();
+			}
+		}
+
+		private synchronized void close() throws IOException {
+			for (FileBackedCache<K,V> seg: segments) {
+				seg.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package io.compgen.common.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Buffered reader for binary data (little-endian). This reads the same formats as the
+ * static DataIO methods, but all values are decoded from a single reusable buffer, so
+ * there are no allocations per value read.
+ *
+ * This class is not thread-safe.
+ */
+public class BinaryReader implements Closeable {
+    public static final int DEFAULT_BUFFERSIZE = 64*1024;
+
+    private final InputStream in;
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buf;
+
+    // position in the source of the start of the buffer
+    private long bufferStart = 0;
+    private boolean eof = false;
+    private boolean closed = false;
+
+    public BinaryReader(InputStream in, int bufferSize) {
+        this.in = in;
+        this.channel = null;
+        this.buf = ByteBuffer.allocate(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        this.buf.limit(0);
+    }
+
+    public BinaryReader(InputStream in) {
+        this(in, DEFAULT_BUFFERSIZE);
+    }
+
+    public BinaryReader(ReadableByteChannel channel, int bufferSize) throws IOException {
+        this.in = null;
+        this.channel = channel;
+        this.buf = ByteBuffer.allocate(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        this.buf.limit(0);
+        if (channel instanceof FileChannel) {
+            this.bufferStart = ((FileChannel) channel).position();
+        }
+    }
+
+    public BinaryReader(ReadableByteChannel channel) throws IOException {
+        this(channel, DEFAULT_BUFFERSIZE);
+    }
+
+    /**
+     * Reads from the RandomAccessFile's channel, starting at the current file pointer.
+     * Reading will move the file pointer past the buffered data.
+     */
+    public BinaryReader(RandomAccessFile raf, int bufferSize) throws IOException {
+        this(raf.getChannel(), bufferSize);
+    }
+
+    public BinaryReader(RandomAccessFile raf) throws IOException {
+        this(raf.getChannel(), DEFAULT_BUFFERSIZE);
+    }
+
+    /**
+     * Make sure there are at least n bytes available in the buffer.
+     * @return false if the source is exhausted before n bytes are available
+     */
+    private boolean ensure(int n) throws IOException {
+        if (buf.remaining() >= n) {
+            return true;
+        }
+        if (closed) {
+            throw new IOException("Attempted to read from closed reader!");
+        }
+        if (n > buf.capacity()) {
+            throw new IOException("Attempted to read more than the buffer size!");
+        }
+
+        bufferStart += buf.position();
+        buf.compact();
+        while (buf.position() < n && !eof) {
+            int count;
+            if (in != null) {
+                count = in.read(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+                if (count > 0) {
+                    buf.position(buf.position() + count);
+                }
+            } else {
+                count = channel.read(buf);
+            }
+            if (count == -1) {
+                eof = true;
+            }
+        }
+        buf.flip();
+        return buf.remaining() >= n;
+    }
+
+    private void require(int n) throws IOException {
+        if (!ensure(n)) {
+            throw new EOFException();
+        }
+    }
+
+    /**
+     * @return the next byte (0-255) or -1 if the source is exhausted
+     */
+    public int readByte() throws IOException {
+        if (!ensure(1)) {
+            return -1;
+        }
+        return buf.get() & 0xFF;
+    }
+
+    public int readUint16() throws IOException {
+        require(2);
+        return buf.getShort() & 0xFFFF;
+    }
+
+    public long readUint32() throws IOException {
+        require(4);
+        return buf.getInt() & 0xFFFFFFFFL;
+    }
+
+    public int readInt32() throws IOException {
+        require(4);
+        return buf.getInt();
+    }
+
+    public long readInt64() throws IOException {
+        require(8);
+        return buf.getLong();
+    }
+
+    /**
+     * This isn't quite a Uint64, but rather a Uint63 (see DataIO.readUint64)
+     */
+    public long readUint64() throws IOException {
+        require(8);
+        long val = buf.getLong();
+        if (val < 0) {
+            throw new IOException("uint64 value too large (can't read uint64, only uint63)");
+        }
+        return val;
+    }
+
+    /**
+     * @return the value, or -1 if the source is exhausted (same as DataIO.readVarInt)
+     */
+    public long readVarInt() throws IOException {
+        int shift = 0;
+        long acc = 0;
+        while (true) {
+            if (!buf.hasRemaining() && !ensure(1)) {
+                return -1;
+            }
+            byte b = buf.get();
+            acc |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return acc;
+            }
+            shift += 7;
+        }
+    }
+
+    /**
+     * Reads exactly len bytes into dest
+     * @throws EOFException if the source is exhausted first
+     */
+    public void readRawBytes(byte[] dest, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buf.hasRemaining() && !ensure(1)) {
+                throw new EOFException();
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(dest, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void readRawBytes(byte[] dest) throws IOException {
+        readRawBytes(dest, 0, dest.length);
+    }
+
+    /**
+     * Skips n bytes (or to the end of the source)
+     * @return the number of bytes skipped
+     */
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n) {
+            if (!buf.hasRemaining() && !ensure(1)) {
+                break;
+            }
+            int count = (int) Math.min(n - skipped, buf.remaining());
+            buf.position(buf.position() + count);
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    /**
+     * @return the number of bytes read from the source (for FileChannels and
+     *         RandomAccessFiles, the offset in the file).
+     */
+    public long position() {
+        return bufferStart + buf.position();
+    }
+
+    /**
+     * Move to a new position. This is only supported for FileChannels and RandomAccessFiles.
+     * If the new position is already buffered, no I/O is needed.
+     */
+    public void seek(long pos) throws IOException {
+        if (!(channel instanceof FileChannel)) {
+            throw new IOException("Seek is only supported for files");
+        }
+        if (pos >= bufferStart && pos <= bufferStart + buf.limit()) {
+            buf.position((int) (pos - bufferStart));
+            return;
+        }
+
+        ((FileChannel) channel).position(pos);
+        bufferStart = pos;
+        buf.clear();
+        buf.limit(0);
+        eof = false;
+    }
+
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (in != null) {
+            in.close();
+        } else {
+            channel.close();
+        }
+        closed = true;
+    }
+}
@@ -0,0 +1,184 @@
+package io.compgen.common.io;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Buffered writer for binary data (little-endian). This writes the same formats as the
+ * static DataIO methods, but all values are encoded into a single reusable buffer, so
+ * there are no allocations per value written.
+ *
+ * This class is not thread-safe.
+ */
+public class BinaryWriter implements Closeable, Flushable {
+    public static final int DEFAULT_BUFFERSIZE = 64*1024;
+
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+    private final ByteBuffer buf;
+
+    // number of bytes flushed to the sink
+    private long written = 0;
+    private boolean closed = false;
+
+    public BinaryWriter(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.channel = null;
+        this.buf = ByteBuffer.allocate(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public BinaryWriter(OutputStream out) {
+        this(out, DEFAULT_BUFFERSIZE);
+    }
+
+    public BinaryWriter(WritableByteChannel channel, int bufferSize) throws IOException {
+        this.out = null;
+        this.channel = channel;
+        this.buf = ByteBuffer.allocate(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        if (channel instanceof FileChannel) {
+            this.written = ((FileChannel) channel).position();
+        }
+    }
+
+    public BinaryWriter(WritableByteChannel channel) throws IOException {
+        this(channel, DEFAULT_BUFFERSIZE);
+    }
+
+    /**
+     * Writes to the RandomAccessFile's channel, starting at the current file pointer.
+     * Data is only written to the file when the buffer is flushed.
+     */
+    public BinaryWriter(RandomAccessFile raf, int bufferSize) throws IOException {
+        this(raf.getChannel(), bufferSize);
+    }
+
+    public BinaryWriter(RandomAccessFile raf) throws IOException {
+        this(raf.getChannel(), DEFAULT_BUFFERSIZE);
+    }
+
+    private void ensure(int n) throws IOException {
+        if (closed) {
+            throw new IOException("Attempted to write to closed writer!");
+        }
+        if (buf.remaining() < n) {
+            drain();
+        }
+    }
+
+    private void drain() throws IOException {
+        buf.flip();
+        written += buf.remaining();
+        if (out != null) {
+            out.write(buf.array(), buf.arrayOffset(), buf.remaining());
+        } else {
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        }
+        buf.clear();
+    }
+
+    public void writeByte(int b) throws IOException {
+        ensure(1);
+        buf.put((byte) b);
+    }
+
+    public void writeUint16(int val) throws IOException {
+        ensure(2);
+        buf.putShort((short) (val & 0xFFFF));
+    }
+
+    public void writeUint32(long val) throws IOException {
+        ensure(4);
+        buf.putInt((int) (val & 0xFFFFFFFFL));
+    }
+
+    public void writeInt32(int val) throws IOException {
+        ensure(4);
+        buf.putInt(val);
+    }
+
+    public void writeInt64(long val) throws IOException {
+        ensure(8);
+        buf.putLong(val);
+    }
+
+    /**
+     * This isn't quite a Uint64, but rather a Uint63 - we will only write positive numbers
+     * (see DataIO.writeUint64)
+     */
+    public void writeUint64(long val) throws IOException {
+        if (val < 0) {
+            throw new IOException("value is too large (wrapped sign)!");
+        }
+        ensure(8);
+        buf.putLong(val);
+    }
+
+    /**
+     * Writes a varint (compatible with DataIO.readVarInt). Values must be positive.
+     */
+    public void writeVarInt(long val) throws IOException {
+        long v = val & 0x7FFFFFFFFFFFFFFFL;
+        ensure(10);
+        while (v > 0x7F) {
+            buf.put((byte)((v & 0x7F) | 0x80));
+            v = v >>> 7;
+        }
+        buf.put((byte)(v & 0x7F));
+    }
+
+    public void writeRawBytes(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            ensure(1);
+            int n = Math.min(len, buf.remaining());
+            buf.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void writeRawBytes(byte[] b) throws IOException {
+        writeRawBytes(b, 0, b.length);
+    }
+
+    /**
+     * @return the number of bytes written (for FileChannels and RandomAccessFiles,
+     *         the offset in the file).
+     */
+    public long position() {
+        return written + buf.position();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (closed) {
+            return;
+        }
+        drain();
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        flush();
+        if (out != null) {
+            out.close();
+        } else {
+            channel.close();
+        }
+        closed = true;
+    }
+}
@@ -0,0 +1,242 @@
+package io.compgen.common.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Helpers for reading and writing block-gzip (BGZF) files.
+ *
+ * A block-gzip file is a series of independent gzip members, each holding at most
+ * MAX_DATA_SIZE bytes of uncompressed data. Each member has an extra header field ("BC")
+ * with the total size of the block, so blocks can be found without decompressing them.
+ * Because each block is a complete gzip member, these files can also be read by any gzip
+ * reader that supports multi-member files (including GZIPInputStream).
+ *
+ *   byte[4]  1f 8b 08 04 (magic, deflate, FEXTRA)
+ *   uint32   mtime (0)
+ *   byte     xfl (0)
+ *   byte     os (ff)
+ *   uint16   xlen (6)
+ *   byte[2]  'B' 'C'
+ *   uint16   slen (2)
+ *   uint16   block size - 1
+ *   byte[]   raw deflated data
+ *   uint32   crc32 (of the uncompressed data)
+ *   uint32   uncompressed size
+ *
+ * The file ends with an empty block (EOF_BLOCK).
+ */
+class BlockGzip {
+    public static final int MAX_BLOCK_SIZE = 64 * 1024;
+    public static final int MAX_DATA_SIZE = 0xFF00;
+    public static final int HEADER_SIZE = 18;
+    public static final int FOOTER_SIZE = 8;
+
+    public static final byte[] EOF_BLOCK = new byte[] {
+            0x1f, (byte) 0x8b, 0x08, 0x04, 0x00, 0x00, 0x00, 0x00,
+            0x00, (byte) 0xff, 0x06, 0x00, 0x42, 0x43, 0x02, 0x00,
+            0x1b, 0x00, 0x03, 0x00, 0x00, 0x00, 0x00, 0x00,
+            0x00, 0x00, 0x00, 0x00 };
+
+    /**
+     * Does this look like the start of a block-gzip file? This needs at least the first
+     * 18 bytes of the file.
+     */
+    public static boolean isBlockGzip(byte[] header) {
+        if (header.length < HEADER_SIZE || header.length < 12 + readUint16(header, 10)) {
+            return false;
+        }
+        return (header[0] & 0xFF) == 0x1f && (header[1] & 0xFF) == 0x8b && header[2] == 0x08
+                && (header[3] & 0x04) != 0 && findBlockSize(header, 12, readUint16(header, 10)) > 0;
+    }
+
+    /**
+     * Compress len bytes from data into a complete block in out (which must be at least
+     * MAX_BLOCK_SIZE bytes).
+     *
+     * @return the size of the block
+     */
+    public static int compress(byte[] data, int len, Deflater deflater, byte[] out) {
+        int cdataLen = deflate(data, len, deflater, out);
+        if (cdataLen < 0) {
+            // Incompressible data could (in theory) overflow the block, so store it instead.
+            Deflater store = new Deflater(Deflater.NO_COMPRESSION, true);
+            cdataLen = deflate(data, len, store, out);
+            store.end();
+        }
+
+        int blockSize = HEADER_SIZE + cdataLen + FOOTER_SIZE;
+        System.arraycopy(EOF_BLOCK, 0, out, 0, 16);
+        writeUint16(out, 16, blockSize - 1);
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, len);
+        writeUint32(out, HEADER_SIZE + cdataLen, crc.getValue());
+        writeUint32(out, HEADER_SIZE + cdataLen + 4, len);
+        return blockSize;
+    }
+
+    private static int deflate(byte[] data, int len, Deflater deflater, byte[] out) {
+        int max = MAX_BLOCK_SIZE - HEADER_SIZE - FOOTER_SIZE;
+        deflater.reset();
+        deflater.setInput(data, 0, len);
+        deflater.finish();
+        int cdataLen = 0;
+        while (!deflater.finished()) {
+            if (cdataLen == max) {
+                return -1;
+            }
+            cdataLen += deflater.deflate(out, HEADER_SIZE + cdataLen, max - cdataLen);
+        }
+        return cdataLen;
+    }
+
+    /**
+     * Read the next complete block from in into buf (which must be at least MAX_BLOCK_SIZE
+     * bytes).
+     *
+     * @return the size of the block, or -1 if in is at EOF.
+     * @throws IOException if the block isn't a valid block-gzip block (or is truncated)
+     */
+    public static int readBlock(InputStream in, byte[] buf) throws IOException {
+        int n = readFully(in, buf, 0, 12);
+        if (n == 0) {
+            return -1;
+        } else if (n < 12) {
+            throw new EOFException("Truncated block-gzip header");
+        }
+        checkHeader(buf);
+
+        int xlen = readUint16(buf, 10);
+        if (readFully(in, buf, 12, xlen) < xlen) {
+            throw new EOFException("Truncated block-gzip header");
+        }
+        int blockSize = blockSize(buf, 12 + xlen);
+
+        int remaining = blockSize - 12 - xlen;
+        if (readFully(in, buf, 12 + xlen, remaining) < remaining) {
+            throw new EOFException("Truncated block-gzip block");
+        }
+        return blockSize;
+    }
+
+    /**
+     * Find the total size of a block from its header.
+     *
+     * @param buf - the start of the block
+     * @param len - the number of valid bytes in buf (must include the whole header)
+     * @throws IOException if the header isn't a valid block-gzip header
+     */
+    public static int blockSize(byte[] buf, int len) throws IOException {
+        if (len < 12) {
+            throw new EOFException("Truncated block-gzip header");
+        }
+        checkHeader(buf);
+        int xlen = readUint16(buf, 10);
+        if (len < 12 + xlen) {
+            throw new EOFException("Truncated block-gzip header");
+        }
+        int blockSize = findBlockSize(buf, 12, xlen);
+        if (blockSize < 12 + xlen + FOOTER_SIZE) {
+            throw new IOException("Not a block-gzip file (missing block size)");
+        }
+        return blockSize;
+    }
+
+    private static void checkHeader(byte[] buf) throws IOException {
+        if ((buf[0] & 0xFF) != 0x1f || (buf[1] & 0xFF) != 0x8b || buf[2] != 0x08 || (buf[3] & 0x04) == 0) {
+            throw new IOException("Not a block-gzip file (invalid gzip block header)");
+        }
+    }
+
+    /**
+     * Decompress a complete block (from readBlock) into dest (which must be at least
+     * MAX_BLOCK_SIZE bytes) and check the CRC.
+     *
+     * @return the number of uncompressed bytes
+     */
+    public static int inflate(byte[] block, int blockSize, Inflater inflater, byte[] dest) throws IOException {
+        int xlen = readUint16(block, 10);
+        int cdataStart = 12 + xlen;
+        int cdataLen = blockSize - cdataStart - FOOTER_SIZE;
+        long crc = readUint32(block, blockSize - 8);
+        int isize = (int) readUint32(block, blockSize - 4);
+
+        if (isize > MAX_BLOCK_SIZE) {
+            throw new IOException("Invalid block-gzip block (uncompressed size: "+isize+")");
+        }
+
+        inflater.reset();
+        inflater.setInput(block, cdataStart, cdataLen);
+        int len = 0;
+        try {
+            while (len < isize) {
+                int n = inflater.inflate(dest, len, isize - len);
+                if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                len += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+
+        if (len != isize) {
+            throw new IOException("Invalid block-gzip block (size mismatch)");
+        }
+
+        CRC32 check = new CRC32();
+        check.update(dest, 0, len);
+        if (check.getValue() != crc) {
+            throw new IOException("Invalid block-gzip block (CRC mismatch)");
+        }
+        return len;
+    }
+
+    private static int findBlockSize(byte[] buf, int off, int xlen) {
+        int pos = off;
+        while (pos + 4 <= off + xlen) {
+            int slen = readUint16(buf, pos + 2);
+            if (buf[pos] == 'B' && buf[pos + 1] == 'C' && slen == 2 && pos + 6 <= off + xlen) {
+                return readUint16(buf, pos + 4) + 1;
+            }
+            pos += 4 + slen;
+        }
+        return -1;
+    }
+
+    private static int readFully(InputStream in, byte[] buf, int off, int len) throws IOException {
+        int total = 0;
+        while (total < len) {
+            int n = in.read(buf, off + total, len - total);
+            if (n == -1) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    static int readUint16(byte[] buf, int off) {
+        return (buf[off] & 0xFF) | ((buf[off + 1] & 0xFF) << 8);
+    }
+
+    static long readUint32(byte[] buf, int off) {
+        return (readUint16(buf, off) | ((long) readUint16(buf, off + 2) << 16)) & 0xFFFFFFFFL;
+    }
+
+    static void writeUint16(byte[] buf, int off, int val) {
+        buf[off] = (byte) val;
+        buf[off + 1] = (byte) (val >>> 8);
+    }
+
+    static void writeUint32(byte[] buf, int off, long val) {
+        writeUint16(buf, off, (int) (val & 0xFFFF));
+        writeUint16(buf, off + 2, (int) ((val >>> 16) & 0xFFFF));
+    }
+}
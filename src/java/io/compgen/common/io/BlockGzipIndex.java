@@ -0,0 +1,180 @@
+package io.compgen.common.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Index of the blocks in a block-gzip file. For each block, this stores the offset of the
+ * block in the compressed file and the offset of its first byte in the uncompressed data.
+ * This is enough to convert an uncompressed position into a virtual offset (see
+ * SeekableBlockGzipInputStream).
+ *
+ * An index is built by BlockGzipOutputStream while writing, or can be built for an existing
+ * file by scanning the block headers (build()). Indexes can be saved as a small sidecar file.
+ *
+ *   byte[4]  "BGZI"
+ *   varint   number of blocks
+ *   [blocks]
+ *     varint compressed offset (delta from the previous block)
+ *     varint uncompressed offset (delta from the previous block)
+ */
+public class BlockGzipIndex {
+    private static final byte[] MAGIC = new byte[] { 'B', 'G', 'Z', 'I' };
+
+    private long[] coffsets = new long[64];
+    private long[] uoffsets = new long[64];
+    private int size = 0;
+
+    public BlockGzipIndex() {
+    }
+
+    void add(long coffset, long uoffset) {
+        if (size == coffsets.length) {
+            coffsets = Arrays.copyOf(coffsets, size * 2);
+            uoffsets = Arrays.copyOf(uoffsets, size * 2);
+        }
+        coffsets[size] = coffset;
+        uoffsets[size] = uoffset;
+        size++;
+    }
+
+    /**
+     * @return the number of blocks
+     */
+    public int size() {
+        return size;
+    }
+
+    public long getCompressedOffset(int block) {
+        return coffsets[block];
+    }
+
+    public long getUncompressedOffset(int block) {
+        return uoffsets[block];
+    }
+
+    /**
+     * Convert a position in the uncompressed data to a virtual offset.
+     */
+    public long getVirtualOffset(long uoffset) {
+        if (size == 0 || uoffset < 0) {
+            throw new IndexOutOfBoundsException("Invalid uncompressed offset: "+uoffset);
+        }
+        int idx = Arrays.binarySearch(uoffsets, 0, size, uoffset);
+        if (idx < 0) {
+            idx = -idx - 2;
+        }
+        if (uoffset - uoffsets[idx] > BlockGzip.MAX_DATA_SIZE) {
+            throw new IndexOutOfBoundsException("Invalid uncompressed offset: "+uoffset);
+        }
+        return (coffsets[idx] << 16) | (uoffset - uoffsets[idx]);
+    }
+
+    /**
+     * Convert a virtual offset to a position in the uncompressed data.
+     */
+    public long getUncompressedOffset(long voffset) {
+        long coffset = voffset >>> 16;
+        int idx = Arrays.binarySearch(coffsets, 0, size, coffset);
+        if (idx < 0) {
+            throw new IndexOutOfBoundsException("No block at compressed offset: "+coffset);
+        }
+        return uoffsets[idx] + (voffset & 0xFFFF);
+    }
+
+    public void write(String filename) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(filename));
+        try {
+            write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    public void write(OutputStream out) throws IOException {
+        DataIO.writeRawBytes(out, MAGIC);
+        DataIO.writeVarInt(out, size);
+        long lastC = 0;
+        long lastU = 0;
+        for (int i=0; i<size; i++) {
+            DataIO.writeVarInt(out, coffsets[i] - lastC);
+            DataIO.writeVarInt(out, uoffsets[i] - lastU);
+            lastC = coffsets[i];
+            lastU = uoffsets[i];
+        }
+    }
+
+    public static BlockGzipIndex read(String filename) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(filename));
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    public static BlockGzipIndex read(InputStream in) throws IOException {
+        if (!Arrays.equals(DataIO.readRawBytes(in, MAGIC.length), MAGIC)) {
+            throw new IOException("Invalid block-gzip index (bad magic)");
+        }
+        long count = DataIO.readVarInt(in);
+        if (count < 0) {
+            throw new IOException("Invalid block-gzip index (truncated)");
+        }
+
+        BlockGzipIndex index = new BlockGzipIndex();
+        long coffset = 0;
+        long uoffset = 0;
+        for (long i=0; i<count; i++) {
+            long dc = DataIO.readVarInt(in);
+            long du = DataIO.readVarInt(in);
+            if (dc < 0 || du < 0) {
+                throw new IOException("Invalid block-gzip index (truncated)");
+            }
+            coffset += dc;
+            uoffset += du;
+            index.add(coffset, uoffset);
+        }
+        return index;
+    }
+
+    /**
+     * Build an index for an existing block-gzip file. This only reads the block headers
+     * and footers, so no data is decompressed.
+     */
+    public static BlockGzipIndex build(File file) throws IOException {
+        BlockGzipIndex index = new BlockGzipIndex();
+        PositionalReader reader = new PositionalReader(file);
+        try {
+            long length = reader.length();
+            byte[] header = new byte[256];
+            long coffset = 0;
+            long uoffset = 0;
+            while (coffset < length) {
+                int n = (int) Math.min(header.length, length - coffset);
+                reader.readRawBytes(coffset, header, 0, n);
+                int blockSize = BlockGzip.blockSize(header, n);
+                long isize = reader.readUint32(coffset + blockSize - 4);
+                if (isize > 0) {
+                    index.add(coffset, uoffset);
+                    uoffset += isize;
+                }
+                coffset += blockSize;
+            }
+        } finally {
+            reader.close();
+        }
+        return index;
+    }
+
+    public static BlockGzipIndex build(String filename) throws IOException {
+        return build(new File(filename));
+    }
+}
@@ -0,0 +1,226 @@
+package io.compgen.common.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a block-gzip (BGZF-compatible) stream, such as one written by BlockGzipOutputStream.
+ *
+ * Compressed blocks are read ahead of the current position and decompressed in parallel
+ * on a thread pool. Blocks are returned in order. Each block's CRC is checked.
+ *
+ * This only reads block-gzip files. Use isBlockGzip() to check the header of a file
+ * first (other gzip files can be read with GZIPInputStream).
+ *
+ * This class is not thread-safe (only the decompression is done on multiple threads).
+ */
+public class BlockGzipInputStream extends InputStream {
+    // number of bytes needed for isBlockGzip()
+    public static final int MAGIC_SIZE = BlockGzip.HEADER_SIZE;
+
+    private static class Block {
+        final byte[] raw = new byte[BlockGzip.MAX_BLOCK_SIZE];
+        final byte[] data = new byte[BlockGzip.MAX_BLOCK_SIZE];
+        int rawLen = 0;
+        int len = 0;
+    }
+
+    private final InputStream in;
+    private final ExecutorService executor;
+    private final BlockingQueue<Inflater> inflaters;
+    private final int maxPending;
+
+    private final ArrayDeque<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+    private final ArrayDeque<Block> free = new ArrayDeque<Block>();
+    private Block current = null;
+    private int pos = 0;
+
+    private boolean eof = false;
+    private boolean closed = false;
+
+    public BlockGzipInputStream(InputStream in) {
+        this(in, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param in
+     * @param threads - number of decompression threads (if 1, blocks are decompressed on the calling thread)
+     */
+    public BlockGzipInputStream(InputStream in, int threads) {
+        this.in = in;
+        threads = Math.max(1, threads);
+        this.maxPending = threads * 2;
+        this.inflaters = new ArrayBlockingQueue<Inflater>(threads);
+        for (int i=0; i<threads; i++) {
+            inflaters.add(new Inflater(true));
+        }
+        if (threads > 1) {
+            this.executor = Executors.newFixedThreadPool(threads, BlockGzipOutputStream.daemonThreadFactory("BlockGzipInputStream"));
+        } else {
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Does this look like the start of a block-gzip file? This needs at least the first
+     * MAGIC_SIZE bytes of the file.
+     */
+    public static boolean isBlockGzip(byte[] header) {
+        return BlockGzip.isBlockGzip(header);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        return current.data[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int n = Math.min(len, current.len - pos);
+        System.arraycopy(current.data, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && ensureData()) {
+            int count = (int) Math.min(n - skipped, current.len - pos);
+            pos += count;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (current == null) {
+            return 0;
+        }
+        return current.len - pos;
+    }
+
+    /**
+     * Make sure there is unread data in the current block, moving to the next (non-empty)
+     * block if needed.
+     *
+     * @return false if the stream is exhausted
+     */
+    private boolean ensureData() throws IOException {
+        if (closed) {
+            throw new IOException("Attempted to read from closed stream!");
+        }
+        while (current == null || pos >= current.len) {
+            if (current != null) {
+                free.add(current);
+                current = null;
+            }
+            fill();
+            if (pending.isEmpty()) {
+                return false;
+            }
+            current = next();
+            pos = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Read compressed blocks and send them to be decompressed (up to maxPending blocks ahead)
+     */
+    private void fill() throws IOException {
+        while (!eof && pending.size() < maxPending) {
+            final Block block = free.isEmpty() ? new Block() : free.poll();
+            block.rawLen = BlockGzip.readBlock(in, block.raw);
+            if (block.rawLen == -1) {
+                eof = true;
+                free.add(block);
+                return;
+            }
+
+            Callable<Block> task = new Callable<Block>() {
+                @Override
+                public Block call() throws Exception {
+                    return inflate(block);
+                }
+            };
+
+            if (executor == null) {
+                // decompress on this thread, one block at a time
+                FutureTask<Block> future = new FutureTask<Block>(task);
+                future.run();
+                pending.add(future);
+                return;
+            }
+            pending.add(executor.submit(task));
+        }
+    }
+
+    private Block next() throws IOException {
+        Future<Block> future = pending.poll();
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private Block inflate(Block block) throws IOException {
+        Inflater inflater;
+        try {
+            inflater = inflaters.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        try {
+            block.len = BlockGzip.inflate(block.raw, block.rawLen, inflater, block.data);
+        } finally {
+            inflaters.add(inflater);
+        }
+        return block;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            in.close();
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            for (Inflater inflater: inflaters) {
+                inflater.end();
+            }
+        }
+    }
+}
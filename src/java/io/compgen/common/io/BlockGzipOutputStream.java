@@ -0,0 +1,276 @@
+package io.compgen.common.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a block-gzip (BGZF-compatible) stream. Data is split into independent blocks of
+ * up to 64KB, which are compressed in parallel on a thread pool and written in order.
+ *
+ * The output is a valid multi-member gzip file, so it can be read by any gzip reader.
+ * BlockGzipInputStream can read it back in parallel.
+ *
+ * An index of the blocks (BlockGzipIndex) is built as the blocks are written. Positions
+ * in the uncompressed data (getUncompressedPosition()) can be converted to virtual offsets
+ * with the index, or getVirtualOffset() can be used directly.
+ *
+ * Calling flush() ends the current block early. This class is not thread-safe (only the
+ * compression is done on multiple threads).
+ */
+public class BlockGzipOutputStream extends OutputStream {
+    private static class Block {
+        final byte[] data = new byte[BlockGzip.MAX_DATA_SIZE];
+        final byte[] compressed = new byte[BlockGzip.MAX_BLOCK_SIZE];
+        int len = 0;
+        int compressedLen = 0;
+    }
+
+    private final OutputStream out;
+    private final ExecutorService executor;
+    private final BlockingQueue<Deflater> deflaters;
+    private final int maxPending;
+
+    private final ArrayDeque<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+    private final ArrayDeque<Block> free = new ArrayDeque<Block>();
+    private Block current = new Block();
+    private final BlockGzipIndex index = new BlockGzipIndex();
+
+    // number of compressed bytes written to out
+    private long written = 0;
+    // number of uncompressed bytes written to out (as blocks)
+    private long uncompressedWritten = 0;
+    // number of uncompressed bytes sent to be compressed
+    private long uncompressedSubmitted = 0;
+    private boolean closed = false;
+
+    public BlockGzipOutputStream(OutputStream out) {
+        this(out, Runtime.getRuntime().availableProcessors(), Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public BlockGzipOutputStream(OutputStream out, int threads) {
+        this(out, threads, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param out
+     * @param threads - number of compression threads (if 1, blocks are compressed on the calling thread)
+     * @param level - compression level (see Deflater)
+     */
+    public BlockGzipOutputStream(OutputStream out, int threads, int level) {
+        this.out = out;
+        threads = Math.max(1, threads);
+        this.maxPending = threads * 2;
+        this.deflaters = new ArrayBlockingQueue<Deflater>(threads);
+        for (int i=0; i<threads; i++) {
+            deflaters.add(new Deflater(level, true));
+        }
+        if (threads > 1) {
+            this.executor = Executors.newFixedThreadPool(threads, daemonThreadFactory("BlockGzipOutputStream"));
+        } else {
+            this.executor = null;
+        }
+    }
+
+    static ThreadFactory daemonThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        current.data[current.len++] = (byte) b;
+        if (current.len == current.data.length) {
+            submit();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int n = Math.min(len, current.data.length - current.len);
+            System.arraycopy(b, off, current.data, current.len, n);
+            current.len += n;
+            off += n;
+            len -= n;
+            if (current.len == current.data.length) {
+                submit();
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Attempted to write to closed stream!");
+        }
+    }
+
+    /**
+     * Send the current block to be compressed (or compress it now if there is only one thread)
+     */
+    private void submit() throws IOException {
+        if (current.len == 0) {
+            return;
+        }
+
+        final Block block = current;
+        uncompressedSubmitted += block.len;
+        current = free.isEmpty() ? new Block() : free.poll();
+
+        if (executor == null) {
+            compress(block);
+            writeBlock(block);
+            return;
+        }
+
+        pending.add(executor.submit(new Callable<Block>() {
+            @Override
+            public Block call() throws Exception {
+                return compress(block);
+            }
+        }));
+
+        while (pending.size() >= maxPending) {
+            writeNext();
+        }
+    }
+
+    private Block compress(Block block) throws IOException {
+        Deflater deflater;
+        try {
+            deflater = deflaters.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        try {
+            block.compressedLen = BlockGzip.compress(block.data, block.len, deflater, block.compressed);
+        } finally {
+            deflaters.add(deflater);
+        }
+        return block;
+    }
+
+    /**
+     * Wait for the oldest pending block and write it
+     */
+    private void writeNext() throws IOException {
+        Future<Block> future = pending.poll();
+        try {
+            writeBlock(future.get());
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void writeBlock(Block block) throws IOException {
+        out.write(block.compressed, 0, block.compressedLen);
+        index.add(written, uncompressedWritten);
+        written += block.compressedLen;
+        uncompressedWritten += block.len;
+        block.len = 0;
+        block.compressedLen = 0;
+        free.add(block);
+    }
+
+    /**
+     * @return the number of compressed bytes written so far (not including any pending blocks).
+     */
+    public long getCompressedPosition() {
+        return written;
+    }
+
+    /**
+     * @return the number of uncompressed bytes written to this stream so far.
+     */
+    public long getUncompressedPosition() {
+        return uncompressedSubmitted + current.len;
+    }
+
+    /**
+     * Returns the virtual offset of the current position: (compressed offset of the block << 16) |
+     * (offset in the block). This has to wait for all pending blocks to be compressed, so
+     * for many positions, it is faster to record getUncompressedPosition() and convert them
+     * with the index after closing the stream.
+     */
+    public long getVirtualOffset() throws IOException {
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+        return (written << 16) | current.len;
+    }
+
+    /**
+     * @return the index of the blocks written so far (complete after the stream is closed).
+     */
+    public BlockGzipIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Writes all buffered data (ending the current block).
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        submit();
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        Throwable error = null;
+        try {
+            flush();
+            out.write(BlockGzip.EOF_BLOCK);
+            written += BlockGzip.EOF_BLOCK.length;
+        } catch (Throwable t) {
+            error = t;
+            throw t;
+        } finally {
+            closed = true;
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            for (Deflater deflater: deflaters) {
+                deflater.end();
+            }
+            // always close the parent stream (the first exception is the one thrown)
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    throw e;
+                }
+            }
+        }
+    }
+}
@@ -1,14 +1,22 @@
 package io.compgen.common.io;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * Read/write data in binary format (little-endian)
+ * 
+ * For reading or writing many values, BinaryReader and BinaryWriter use the same
+ * formats, but don't allocate a new buffer for each value.
+ * 
  * @author mbreese
  *
  */
@@ -265,7 +273,7 @@ public class DataIO {
     public static void writeVarInt(OutputStream out, long val) throws IOException {
         long v = val & 0x7FFFFFFFFFFFFFFFL;
         
-        while (v >= 0x7F) {
+        while (v > 0x7F) {
             writeRawByte(out, (byte)((v & 0x7F) | 0x80));
             v = v >>> 7;
         }
@@ -335,7 +343,7 @@ public class DataIO {
     public static void writeVarInt(RandomAccessFile raf, long val) throws IOException {
         long v = val & 0x7FFFFFFFFFFFFFFFL;
         
-        while (v >= 0x7F) {
+        while (v > 0x7F) {
             writeRawByte(raf, (byte)((v & 0x7F) | 0x80));
             v = v >>> 7;
         }
@@ -351,4 +359,325 @@ public class DataIO {
     public static void writeRawBytes(RandomAccessFile raf, byte[] b, int off, int len) throws IOException {
         raf.write(b, off, len);
     }
+
+    /*
+     * Bulk array reads/writes. These transfer whole arrays through int/long views of a
+     * little-endian ByteBuffer, in chunks of BULK_BUFFER_SIZE bytes, instead of reading
+     * one value at a time.
+     */
+    public static final int BULK_BUFFER_SIZE = 1024 * 1024;
+
+    private static void readFully(FileChannel channel, long pos, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, pos);
+            if (n == -1) {
+                throw new EOFException();
+            }
+            pos += n;
+        }
+    }
+
+    private static void readFully(InputStream in, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = in.read(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            if (n == -1) {
+                throw new EOFException();
+            }
+            buf.position(buf.position() + n);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    // direct buffers are expensive to allocate (and only freed by GC), so each thread reuses one
+    private static final ThreadLocal<ByteBuffer> directBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(BULK_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    };
+
+    private static ByteBuffer bulkBuffer(long bytes, boolean direct) {
+        if (direct) {
+            ByteBuffer buf = directBuffer.get();
+            buf.clear();
+            return buf;
+        }
+        int size = (int) Math.min(bytes, BULK_BUFFER_SIZE);
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int bufferSize(int count, int width) {
+        long bytes = (long) count * width;
+        if (count < 0 || bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid count: "+count+" ("+bytes+" bytes is more than a ByteBuffer can hold)");
+        }
+        return (int) bytes;
+    }
+
+    /**
+     * Read len int32 values from the channel, starting at file position pos. The channel
+     * position isn't changed, so this is safe to call from many threads.
+     */
+    public static void readInt32Array(FileChannel channel, long pos, int[] dest, int off, int len) throws IOException {
+        ByteBuffer buf = bulkBuffer(len * 4L, true);
+        while (len > 0) {
+            int n = Math.min(len, buf.capacity() / 4);
+            buf.clear();
+            buf.limit(n * 4);
+            readFully(channel, pos, buf);
+            buf.flip();
+            buf.asIntBuffer().get(dest, off, n);
+            pos += n * 4L;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public static int[] readInt32Array(FileChannel channel, long pos, int count) throws IOException {
+        int[] out = new int[count];
+        readInt32Array(channel, pos, out, 0, count);
+        return out;
+    }
+
+    /**
+     * Read len uint32 values from the channel, starting at file position pos.
+     */
+    public static void readUint32Array(FileChannel channel, long pos, long[] dest, int off, int len) throws IOException {
+        ByteBuffer buf = bulkBuffer(len * 4L, true);
+        while (len > 0) {
+            int n = Math.min(len, buf.capacity() / 4);
+            buf.clear();
+            buf.limit(n * 4);
+            readFully(channel, pos, buf);
+            buf.flip();
+            IntBuffer ib = buf.asIntBuffer();
+            for (int i=0; i<n; i++) {
+                dest[off + i] = ib.get(i) & 0xFFFFFFFFL;
+            }
+            pos += n * 4L;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public static long[] readUint32Array(FileChannel channel, long pos, int count) throws IOException {
+        long[] out = new long[count];
+        readUint32Array(channel, pos, out, 0, count);
+        return out;
+    }
+
+    /**
+     * Read len int64 values from the channel, starting at file position pos.
+     */
+    public static void readInt64Array(FileChannel channel, long pos, long[] dest, int off, int len) throws IOException {
+        ByteBuffer buf = bulkBuffer(len * 8L, true);
+        while (len > 0) {
+            int n = Math.min(len, buf.capacity() / 8);
+            buf.clear();
+            buf.limit(n * 8);
+            readFully(channel, pos, buf);
+            buf.flip();
+            buf.asLongBuffer().get(dest, off, n);
+            pos += n * 8L;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public static long[] readInt64Array(FileChannel channel, long pos, int count) throws IOException {
+        long[] out = new long[count];
+        readInt64Array(channel, pos, out, 0, count);
+        return out;
+    }
+
+    /**
+     * Read count int32 values into a new (off-heap) direct buffer, starting at file position pos.
+     */
+    public static IntBuffer readInt32Buffer(FileChannel channel, long pos, int count) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(bufferSize(count, 4)).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, pos, buf);
+        buf.flip();
+        return buf.asIntBuffer();
+    }
+
+    /**
+     * Read count int64 values into a new (off-heap) direct buffer, starting at file position pos.
+     */
+    public static LongBuffer readInt64Buffer(FileChannel channel, long pos, int count) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(bufferSize(count, 8)).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, pos, buf);
+        buf.flip();
+        return buf.asLongBuffer();
+    }
+
+    /**
+     * Read len int32 values from a (mapped) buffer, starting at its current position.
+     * The buffer's position is advanced past the values.
+     */
+    public static void readInt32Array(ByteBuffer src, int[] dest, int off, int len) {
+        src.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(dest, off, len);
+        src.position(src.position() + len * 4);
+    }
+
+    public static void readUint32Array(ByteBuffer src, long[] dest, int off, int len) {
+        IntBuffer ib = src.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        for (int i=0; i<len; i++) {
+            dest[off + i] = ib.get(i) & 0xFFFFFFFFL;
+        }
+        src.position(src.position() + len * 4);
+    }
+
+    public static void readInt64Array(ByteBuffer src, long[] dest, int off, int len) {
+        src.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(dest, off, len);
+        src.position(src.position() + len * 8);
+    }
+
+    public static void readInt32Array(InputStream in, int[] dest, int off, int len) throws IOException {
+        ByteBuffer buf = bulkBuffer(len * 4L, false);
+        while (len > 0) {
+            int n = Math.min(len, buf.capacity() / 4);
+            buf.clear();
+            buf.limit(n * 4);
+            readFully(in, buf);
+            buf.flip();
+            buf.asIntBuffer().get(dest, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public static void readUint32Array(InputStream in, long[] dest, int off, int len) throws IOException {
+        ByteBuffer buf = bulkBuffer(len * 4L, false);
+        while (len > 0) {
+            int n = Math.min(len, buf.capacity() / 4);
+            buf.clear();
+            buf.limit(n * 4);
+            readFully(in, buf);
+            buf.flip();
+            IntBuffer ib = buf.asIntBuffer();
+            for (int i=0; i<n; i++) {
+                dest[off + i] = ib.get(i) & 0xFFFFFFFFL;
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    public static void readInt64Array(InputStream in, long[] dest, int off, int len) throws IOException {
+        ByteBuffer buf = bulkBuffer(len * 8L, false);
+        while (len > 0) {
+            int n = Math.min(len, buf.capacity() / 8);
+            buf.clear();
+            buf.limit(n * 8);
+            readFully(in, buf);
+            buf.flip();
+            buf.asLongBuffer().get(dest, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Write len int32 values to the channel, at the channel's current position.
+     */
+    public static void writeInt32Array(FileChannel channel, int[] src, int off, int len) throws IOException {
+        ByteBuffer buf = bulkBuffer(len * 4L, true);
+        while (len > 0) {
+            int n = Math.min(len, buf.capacity() / 4);
+            buf.clear();
+            buf.asIntBuffer().put(src, off, n);
+            buf.limit(n * 4);
+            writeFully(channel, buf);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public static void writeInt32Array(FileChannel channel, int[] src) throws IOException {
+        writeInt32Array(channel, src, 0, src.length);
+    }
+
+    /**
+     * Write len uint32 values to the channel, at the channel's current position.
+     */
+    public static void writeUint32Array(FileChannel channel, long[] src, int off, int len) throws IOException {
+        ByteBuffer buf = bulkBuffer(len * 4L, true);
+        while (len > 0) {
+            int n = Math.min(len, buf.capacity() / 4);
+            buf.clear();
+            IntBuffer ib = buf.asIntBuffer();
+            for (int i=0; i<n; i++) {
+                ib.put(i, (int) (src[off + i] & 0xFFFFFFFFL));
+            }
+            buf.limit(n * 4);
+            writeFully(channel, buf);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public static void writeUint32Array(FileChannel channel, long[] src) throws IOException {
+        writeUint32Array(channel, src, 0, src.length);
+    }
+
+    /**
+     * Write len int64 values to the channel, at the channel's current position.
+     */
+    public static void writeInt64Array(FileChannel channel, long[] src, int off, int len) throws IOException {
+        ByteBuffer buf = bulkBuffer(len * 8L, true);
+        while (len > 0) {
+            int n = Math.min(len, buf.capacity() / 8);
+            buf.clear();
+            buf.asLongBuffer().put(src, off, n);
+            buf.limit(n * 8);
+            writeFully(channel, buf);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public static void writeInt64Array(FileChannel channel, long[] src) throws IOException {
+        writeInt64Array(channel, src, 0, src.length);
+    }
+
+    public static void writeInt32Array(OutputStream out, int[] src, int off, int len) throws IOException {
+        ByteBuffer buf = bulkBuffer(len * 4L, false);
+        while (len > 0) {
+            int n = Math.min(len, buf.capacity() / 4);
+            buf.asIntBuffer().put(src, off, n);
+            out.write(buf.array(), buf.arrayOffset(), n * 4);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public static void writeUint32Array(OutputStream out, long[] src, int off, int len) throws IOException {
+        ByteBuffer buf = bulkBuffer(len * 4L, false);
+        while (len > 0) {
+            int n = Math.min(len, buf.capacity() / 4);
+            IntBuffer ib = buf.asIntBuffer();
+            for (int i=0; i<n; i++) {
+                ib.put(i, (int) (src[off + i] & 0xFFFFFFFFL));
+            }
+            out.write(buf.array(), buf.arrayOffset(), n * 4);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public static void writeInt64Array(OutputStream out, long[] src, int off, int len) throws IOException {
+        ByteBuffer buf = bulkBuffer(len * 8L, false);
+        while (len > 0) {
+            int n = Math.min(len, buf.capacity() / 8);
+            buf.asLongBuffer().put(src, off, n);
+            out.write(buf.array(), buf.arrayOffset(), n * 8);
+            off += n;
+            len -= n;
+        }
+    }
 }
@@ -0,0 +1,256 @@
+package io.compgen.common.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only memory-mapped access to a file of any size. A single MappedByteBuffer
+ * is limited to 2GB, so the file is mapped as a series of fixed size segments and
+ * all positions are longs. Values that straddle two segments are handled
+ * transparently.
+ *
+ * Values are little-endian by default.
+ *
+ * All reads use absolute positions, so a MappedFile can be shared between threads.
+ */
+public class MappedFile implements Closeable {
+    public static final int DEFAULT_SEGMENT_BITS = 30; // 1GB segments
+
+    private final RandomAccessFile raf;
+    private final long length;
+    private final int segmentBits;
+    private final long segmentMask;
+    private final ByteOrder order;
+    private final boolean littleEndian;
+    private MappedByteBuffer[] segments;
+
+    public MappedFile(String filename) throws IOException {
+        this(new File(filename), ByteOrder.LITTLE_ENDIAN, DEFAULT_SEGMENT_BITS);
+    }
+
+    public MappedFile(File file) throws IOException {
+        this(file, ByteOrder.LITTLE_ENDIAN, DEFAULT_SEGMENT_BITS);
+    }
+
+    public MappedFile(File file, ByteOrder order) throws IOException {
+        this(file, order, DEFAULT_SEGMENT_BITS);
+    }
+
+    /**
+     * @param file
+     * @param order - byte order for multi-byte values
+     * @param segmentBits - each segment is 2^segmentBits bytes (max 30)
+     * @throws IOException
+     */
+    public MappedFile(File file, ByteOrder order, int segmentBits) throws IOException {
+        if (segmentBits < 3 || segmentBits > 30) {
+            throw new IllegalArgumentException("segmentBits must be between 3 and 30");
+        }
+        this.raf = new RandomAccessFile(file, "r");
+        this.length = raf.length();
+        this.segmentBits = segmentBits;
+        this.segmentMask = (1L << segmentBits) - 1;
+        this.order = order;
+        this.littleEndian = order == ByteOrder.LITTLE_ENDIAN;
+
+        FileChannel channel = raf.getChannel();
+        int count = (int) ((length + segmentMask) >>> segmentBits);
+        this.segments = new MappedByteBuffer[count];
+        for (int i=0; i<count; i++) {
+            long start = ((long) i) << segmentBits;
+            long size = Math.min(1L << segmentBits, length - start);
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            segments[i].order(order);
+        }
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public ByteOrder order() {
+        return order;
+    }
+
+    private void check(long pos, int len) {
+        if (segments == null) {
+            throw new IllegalStateException("MappedFile is closed");
+        }
+        if (pos < 0 || len < 0 || pos + len > length) {
+            throw new IndexOutOfBoundsException("pos: "+pos+", len: "+len+", file length: "+length);
+        }
+    }
+
+    public byte getByte(long pos) {
+        check(pos, 1);
+        return segments[(int) (pos >>> segmentBits)].get((int) (pos & segmentMask));
+    }
+
+    public int getUint8(long pos) {
+        return getByte(pos) & 0xFF;
+    }
+
+    public short getShort(long pos) {
+        check(pos, 2);
+        int off = (int) (pos & segmentMask);
+        MappedByteBuffer seg = segments[(int) (pos >>> segmentBits)];
+        if (off + 2 <= seg.limit()) {
+            return seg.getShort(off);
+        }
+        return (short) straddle(pos, 2);
+    }
+
+    public int getUint16(long pos) {
+        return getShort(pos) & 0xFFFF;
+    }
+
+    public int getInt(long pos) {
+        check(pos, 4);
+        int off = (int) (pos & segmentMask);
+        MappedByteBuffer seg = segments[(int) (pos >>> segmentBits)];
+        if (off + 4 <= seg.limit()) {
+            return seg.getInt(off);
+        }
+        return (int) straddle(pos, 4);
+    }
+
+    public long getUint32(long pos) {
+        return getInt(pos) & 0xFFFFFFFFL;
+    }
+
+    public long getLong(long pos) {
+        check(pos, 8);
+        int off = (int) (pos & segmentMask);
+        MappedByteBuffer seg = segments[(int) (pos >>> segmentBits)];
+        if (off + 8 <= seg.limit()) {
+            return seg.getLong(off);
+        }
+        return straddle(pos, 8);
+    }
+
+    public float getFloat(long pos) {
+        return Float.intBitsToFloat(getInt(pos));
+    }
+
+    public double getDouble(long pos) {
+        return Double.longBitsToDouble(getLong(pos));
+    }
+
+    /**
+     * Assemble a value that crosses a segment boundary one byte at a time.
+     */
+    private long straddle(long pos, int size) {
+        long val = 0;
+        for (int i=0; i<size; i++) {
+            long b = getByte(pos + i) & 0xFF;
+            if (littleEndian) {
+                val |= b << (i * 8);
+            } else {
+                val = (val << 8) | b;
+            }
+        }
+        return val;
+    }
+
+    public void getBytes(long pos, byte[] dest, int off, int len) {
+        check(pos, len);
+        while (len > 0) {
+            int segOff = (int) (pos & segmentMask);
+            ByteBuffer seg = segments[(int) (pos >>> segmentBits)].duplicate();
+            int n = Math.min(len, seg.limit() - segOff);
+            seg.position(segOff);
+            seg.get(dest, off, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public byte[] getBytes(long pos, int len) {
+        byte[] out = new byte[len];
+        getBytes(pos, out, 0, len);
+        return out;
+    }
+
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    /**
+     * Find the next occurrence of a byte, checking a word (8 bytes) at a time.
+     *
+     * @return the position of b (at or after from), or -1
+     */
+    public long indexOf(byte b, long from) {
+        if (segments == null) {
+            throw new IllegalStateException("MappedFile is closed");
+        }
+        long pattern = (b & 0xFFL) * LOW_BITS;
+        long pos = Math.max(from, 0);
+        while (pos < length) {
+            MappedByteBuffer seg = segments[(int) (pos >>> segmentBits)];
+            long base = pos & ~segmentMask;
+            int i = (int) (pos & segmentMask);
+            int limit = seg.limit();
+            while (i + 8 <= limit) {
+                // the first byte in memory has to be the lowest byte of the word
+                long word = littleEndian ? seg.getLong(i) : Long.reverseBytes(seg.getLong(i));
+                long x = word ^ pattern;
+                long found = (x - LOW_BITS) & ~x & HIGH_BITS;
+                if (found != 0) {
+                    return base + i + (Long.numberOfTrailingZeros(found) >>> 3);
+                }
+                i += 8;
+            }
+            while (i < limit) {
+                if (seg.get(i) == b) {
+                    return base + i;
+                }
+                i++;
+            }
+            pos = base + limit;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a buffer for len bytes starting at pos (with the file's byte order). If the
+     * region is within one segment, the buffer is a view of the mapped file. If it crosses
+     * a segment boundary, the bytes are copied into a new buffer.
+     */
+    public ByteBuffer slice(long pos, int len) {
+        check(pos, len);
+        int off = (int) (pos & segmentMask);
+        MappedByteBuffer seg = segments[(int) (pos >>> segmentBits)];
+        if (off + len <= seg.limit()) {
+            ByteBuffer dup = seg.duplicate();
+            dup.position(off);
+            dup.limit(off + len);
+            return dup.slice().order(order);
+        }
+        return ByteBuffer.wrap(getBytes(pos, len)).order(order);
+    }
+
+    /**
+     * Ask the OS to load the whole file into memory (see MappedByteBuffer.load())
+     */
+    public void load() {
+        for (MappedByteBuffer seg: segments) {
+            seg.load();
+        }
+    }
+
+    /**
+     * Closes the file. The mapped memory is released when the segments are garbage
+     * collected.
+     */
+    public void close() throws IOException {
+        segments = null;
+        raf.close();
+    }
+}
@@ -18,6 +18,7 @@ public class PeekableInputStream extends InputStream {
     protected final InputStream parent;
 
     private boolean closed = false;
+    private boolean eof = false;
     private byte[] buffer = null;
 
     // position in buffer
@@ -25,6 +26,7 @@ public class PeekableInputStream extends InputStream {
     // size of buffer (amount read from parent stream)
     private int buflen = 0;
     
+    // number of bytes peeked past pos
     private int peekpos = 0;
     
     public PeekableInputStream(InputStream parent, int bufferSize) throws IOException {
@@ -37,29 +39,41 @@ public class PeekableInputStream extends InputStream {
         this(parent, DEFAULT_BUFFERSIZE);
     }
 
-    private void fillBuffer() throws IOException {
+    /**
+     * Make sure there are at least n unread bytes in the buffer. The unread bytes are moved
+     * to the start of the buffer, and the buffer grows (in bufferSize chunks) if needed.
+     * 
+     * @return false if the parent stream ends first
+     */
+    private boolean ensure(int n) throws IOException {
     	if (parent == null) {
     		throw new IOException("Parent InputStream is null?");
     	}
-        buflen = parent.read(buffer, 0, buffer.length);
-        pos = 0;
-        peekpos = 0;
-    }
-
-    private void resetBuffer() throws IOException {
-        if (pos >= buflen || buflen == 0) { 
-            fillBuffer();
-        } else if (pos > 0) {
-        	// copy from pos to new buffer.
-            byte[] tmp = new byte[buffer.length];
-            for (int i=0; i<buflen - pos; i++) {
-                tmp[i] = buffer[pos + i];
-            }
-
-            buflen = buflen - pos;
+        if (buflen - pos >= n) {
+            return true;
+        }
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, buflen - pos);
+            buflen -= pos;
             pos = 0;
-            peekpos = 0;
         }
+        if (n > buffer.length) {
+        	if (n > (Integer.MAX_VALUE - bufferSize)) {
+        		throw new IOException("Attempted to peek beyond buffer!");
+        	}
+            byte[] newbuf = new byte[((n / bufferSize) + 1) * bufferSize];
+            System.arraycopy(buffer, 0, newbuf, 0, buflen);
+            buffer = newbuf;
+        }
+        while (buflen < n && !eof) {
+            int count = parent.read(buffer, buflen, buffer.length - buflen);
+            if (count == -1) {
+                eof = true;
+            } else {
+                buflen += count;
+            }
+        }
+        return buflen >= n;
     }
     
     @Override
@@ -67,17 +81,43 @@ public class PeekableInputStream extends InputStream {
         if (closed) {
             throw new IOException("Attempted to read from closed stream!");
         }
-        if (pos >= buflen) { 
-            fillBuffer();
-        }
-        
-        if (buflen == -1) {
+        peekpos = 0;
+        if (!ensure(1)) {
             return -1;
         }
-        
         return buffer[pos++] & 0xff;
     }
 
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Attempted to read from closed stream!");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        peekpos = 0;
+        if (pos >= buflen && len >= buffer.length) {
+            // nothing buffered, so skip the copy
+            return parent.read(b, off, len);
+        }
+        if (!ensure(1)) {
+            return -1;
+        }
+        int n = Math.min(len, buflen - pos);
+        System.arraycopy(buffer, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (closed) {
+            return 0;
+        }
+        return (buflen - pos) + parent.available();
+    }
+
     public void close() throws IOException {
         if (closed) {
             return;
@@ -93,6 +133,8 @@ public class PeekableInputStream extends InputStream {
      * network, or whatever) without removing the bytes from the stream. This way
      * you can pre-identify a file with magic bytes without removing the magic bytes.
      * 
+     * Successive peeks continue where the last one stopped (until resetPeek() or a read).
+     * 
      * @param bytes
      * @return
      * @throws IOException
@@ -101,43 +143,35 @@ public class PeekableInputStream extends InputStream {
         if (closed) {
             throw new IOException("Attempted to read from closed stream!");
         }
-        if (pos > 0 || buflen == 0) {
-        	// we don't peek into an empty buffer, or one where the current pos is > 0.
-            resetBuffer();
-        }
-        
         byte[] out = new byte[bytes];
-        
         for (int i=0; i<bytes; i++) {
         	// we will grow the buffer as needed to fulfill the the request... 
             out[i] = peek();
         }
-        
         return out;
     }
     
     public byte peek() throws IOException {
-        if (peekpos >= buflen) {
-        	if (buffer.length > (Integer.MAX_VALUE - bufferSize)) {
-        		throw new IOException("Attempted to peek beyond buffer!");
-        	}
-        	
-        	// grow the buffer in bufferSize chunks
-//        	System.err.println(" -- growing buffer by " + bufferSize );
-        	byte[] newbuf = new byte[buffer.length + bufferSize];
-        	for (int i=0; i<buflen; i++) {
-        		newbuf[i] = buffer[i];
-        	}
-        	// fill in the new buffer.
-            int newbuflen = parent.read(newbuf, buflen, bufferSize);
-            if (newbuflen == -1) {
-        		throw new IOException("Attempted to peek beyond parent inputstream!");
-            }
-            buflen += newbuflen;
-            buffer = newbuf;
+        if (!ensure(peekpos + 1)) {
+    		throw new IOException("Attempted to peek beyond parent inputstream!");
+        }
+        return buffer[pos + peekpos++];
+    }
 
+    /**
+     * Preview up to [bytes] bytes from the current position. If the stream is shorter
+     * than that, the returned array is shorter (this doesn't throw an exception at the end
+     * of the stream, and doesn't change the peek position).
+     */
+    public byte[] peekUpTo(int bytes) throws IOException {
+        if (closed) {
+            throw new IOException("Attempted to read from closed stream!");
         }
-        return buffer[peekpos++];
+        ensure(bytes);
+        int n = Math.min(bytes, buflen - pos);
+        byte[] out = new byte[n];
+        System.arraycopy(buffer, pos, out, 0, n);
+        return out;
     }
     
     public void resetPeek() {
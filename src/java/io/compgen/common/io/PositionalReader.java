@@ -0,0 +1,175 @@
+package io.compgen.common.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read binary data (little-endian, same formats as DataIO) from explicit file offsets.
+ *
+ * This uses positional FileChannel reads, so it doesn't depend on (or change) a shared
+ * file pointer. Many threads can read from the same PositionalReader at once without
+ * any locking. Each thread uses its own small scratch buffer, so reading single values
+ * doesn't allocate.
+ *
+ * Note: if a thread is interrupted while reading, the FileChannel will be closed (see
+ * java.nio.channels.ClosedByInterruptException).
+ */
+public class PositionalReader implements Closeable {
+    private final FileChannel channel;
+    private final RandomAccessFile raf;
+
+    private final ThreadLocal<ByteBuffer> scratch = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(VarIntCodec.MAX_VARINT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    };
+
+    public PositionalReader(String filename) throws IOException {
+        this(new File(filename));
+    }
+
+    public PositionalReader(File file) throws IOException {
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+    }
+
+    /**
+     * Read from an existing channel. The channel isn't closed by close().
+     */
+    public PositionalReader(FileChannel channel) {
+        this.raf = null;
+        this.channel = channel;
+    }
+
+    /**
+     * Read from an existing file. The file isn't closed by close().
+     */
+    public PositionalReader(RandomAccessFile raf) {
+        this(raf.getChannel());
+    }
+
+    public long length() throws IOException {
+        return channel.size();
+    }
+
+    private void readFully(long pos, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, pos);
+            if (n == -1) {
+                throw new EOFException();
+            }
+            pos += n;
+        }
+    }
+
+    private ByteBuffer read(long pos, int len) throws IOException {
+        ByteBuffer buf = scratch.get();
+        buf.clear();
+        buf.limit(len);
+        readFully(pos, buf);
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * @return the byte at pos (0-255) or -1 if pos is past the end of the file
+     */
+    public int readByte(long pos) throws IOException {
+        ByteBuffer buf = scratch.get();
+        buf.clear();
+        buf.limit(1);
+        if (channel.read(buf, pos) < 1) {
+            return -1;
+        }
+        return buf.get(0) & 0xFF;
+    }
+
+    public int readUint16(long pos) throws IOException {
+        return read(pos, 2).getShort() & 0xFFFF;
+    }
+
+    public long readUint32(long pos) throws IOException {
+        return read(pos, 4).getInt() & 0xFFFFFFFFL;
+    }
+
+    public int readInt32(long pos) throws IOException {
+        return read(pos, 4).getInt();
+    }
+
+    public long readInt64(long pos) throws IOException {
+        return read(pos, 8).getLong();
+    }
+
+    /**
+     * This isn't quite a Uint64, but rather a Uint63 (see DataIO.readUint64)
+     */
+    public long readUint64(long pos) throws IOException {
+        long val = read(pos, 8).getLong();
+        if (val < 0) {
+            throw new IOException("uint64 value too large (can't read uint64, only uint63)");
+        }
+        return val;
+    }
+
+    /**
+     * Reads a varint (compatible with DataIO.readVarInt) starting at pos. The size of the
+     * value on disk is VarIntCodec.varIntSize(value).
+     *
+     * @return the value, or -1 if pos is at the end of the file
+     */
+    public long readVarInt(long pos) throws IOException {
+        ByteBuffer buf = scratch.get();
+        buf.clear();
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, pos + buf.position()) == -1) {
+                break;
+            }
+        }
+        buf.flip();
+        if (!buf.hasRemaining()) {
+            return -1;
+        }
+
+        int shift = 0;
+        long acc = 0;
+        while (buf.hasRemaining()) {
+            byte b = buf.get();
+            acc |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return acc;
+            }
+            shift += 7;
+        }
+        throw new IOException("Invalid varint at position: "+pos);
+    }
+
+    public void readRawBytes(long pos, byte[] dest, int off, int len) throws IOException {
+        readFully(pos, ByteBuffer.wrap(dest, off, len));
+    }
+
+    public byte[] readRawBytes(long pos, int len) throws IOException {
+        byte[] out = new byte[len];
+        readRawBytes(pos, out, 0, len);
+        return out;
+    }
+
+    /**
+     * Read into buf (from its position to its limit) starting at file offset pos.
+     */
+    public void read(long pos, ByteBuffer buf) throws IOException {
+        readFully(pos, buf);
+    }
+
+    public void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package io.compgen.common.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * This class wraps another inputstream and reads from it on a background thread. Data is
+ * read into a ring of large buffers, so the background thread can fill the next buffer
+ * while the consumer reads from the current one. Memory use is bounded to
+ * (buffers * bufferSize) bytes. If the consumer is waiting, a partially filled buffer is
+ * handed over, so slow sources (like pipes) aren't delayed.
+ *
+ * If the parent stream decompresses data (for example, a GZIPInputStream), then the
+ * decompression is also done on the background thread.
+ *
+ * Any exception from the parent stream is re-thrown (as an IOException) to the consumer
+ * when it reaches that point in the stream.
+ *
+ * The parent stream is closed by the background thread. When this stream is closed before
+ * the parent is exhausted, the parent is closed as soon as any read in progress returns.
+ */
+public class ReadAheadInputStream extends InputStream {
+    public static final int DEFAULT_BUFFERSIZE = 1024*1024;
+    public static final int DEFAULT_BUFFERS = 4;
+
+    private static class Buffer {
+        final byte[] data;
+        int len = 0;
+        boolean eof = false;
+        Throwable error = null;
+
+        Buffer(int size) {
+            this.data = new byte[size];
+        }
+    }
+
+    private final InputStream parent;
+    private final BlockingQueue<Buffer> empty;
+    private final BlockingQueue<Buffer> filled;
+    private final Thread thread;
+
+    private Buffer current = null;
+    private int pos = 0;
+    private volatile boolean closed = false;
+
+    public ReadAheadInputStream(InputStream parent) {
+        this(parent, DEFAULT_BUFFERSIZE, DEFAULT_BUFFERS);
+    }
+
+    /**
+     * @param parent
+     * @param bufferSize - size of each buffer
+     * @param buffers - number of buffers (at least 2)
+     */
+    public ReadAheadInputStream(InputStream parent, int bufferSize, int buffers) {
+        if (buffers < 2) {
+            throw new IllegalArgumentException("At least two buffers are required");
+        }
+        this.parent = parent;
+        this.empty = new ArrayBlockingQueue<Buffer>(buffers);
+        this.filled = new ArrayBlockingQueue<Buffer>(buffers);
+        for (int i=0; i<buffers; i++) {
+            empty.add(new Buffer(bufferSize));
+        }
+
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop();
+            }
+        }, "ReadAheadInputStream");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Background thread: fill empty buffers from the parent stream until EOF, an error, or close.
+     */
+    private void readLoop() {
+        try {
+            boolean eof = false;
+            while (!eof && !closed) {
+                Buffer buf = empty.take();
+                buf.len = 0;
+                try {
+                    while (buf.len < buf.data.length) {
+                        int n = parent.read(buf.data, buf.len, buf.data.length - buf.len);
+                        if (n == -1) {
+                            eof = true;
+                            break;
+                        }
+                        buf.len += n;
+                        if (filled.isEmpty()) {
+                            // the consumer is waiting, so don't wait to fill the whole buffer
+                            break;
+                        }
+                    }
+                } catch (Throwable t) {
+                    buf.error = t;
+                    eof = true;
+                }
+                buf.eof = eof;
+                filled.put(buf);
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } finally {
+            try {
+                parent.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Make sure there is unread data in the current buffer.
+     * @return false if the stream is exhausted
+     */
+    private boolean ensureData() throws IOException {
+        if (closed) {
+            throw new IOException("Attempted to read from closed stream!");
+        }
+        while (current == null || pos >= current.len) {
+            if (current != null) {
+                if (current.error != null) {
+                    // the data before the error has been read, so now we can throw it
+                    Throwable t = current.error;
+                    throw new IOException(t.getMessage(), t);
+                }
+                if (current.eof) {
+                    return false;
+                }
+                empty.add(current);
+            }
+            try {
+                current = filled.take();
+            } catch (InterruptedException e) {
+                current = null;
+                throw new InterruptedIOException();
+            }
+            pos = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        return current.data[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int n = Math.min(len, current.len - pos);
+        System.arraycopy(current.data, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && ensureData()) {
+            int count = (int) Math.min(n - skipped, current.len - pos);
+            pos += count;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (current == null) {
+            return 0;
+        }
+        return current.len - pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        thread.interrupt();
+        filled.clear();
+    }
+}
@@ -0,0 +1,200 @@
+package io.compgen.common.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+
+import io.compgen.common.cache.LRUCache;
+
+/**
+ * Random access reads from a block-gzip (BGZF-compatible) file.
+ *
+ * Positions are given as virtual offsets: (compressed offset of the block << 16) | (offset
+ * in the uncompressed block). These can be recorded while writing (see BlockGzipOutputStream)
+ * or converted from uncompressed positions with a BlockGzipIndex.
+ *
+ * Recently used blocks are kept decompressed in a small cache, so nearby seeks don't need
+ * to decompress the same block again.
+ *
+ * This class is not thread-safe.
+ */
+public class SeekableBlockGzipInputStream extends InputStream {
+    public static final int DEFAULT_CACHE_SIZE = 16;
+
+    private static class Block {
+        final long coffset;
+        final int blockSize;
+        final byte[] data;
+        final int len;
+
+        Block(long coffset, int blockSize, byte[] data, int len) {
+            this.coffset = coffset;
+            this.blockSize = blockSize;
+            this.data = data;
+            this.len = len;
+        }
+    }
+
+    private final PositionalReader reader;
+    private final long length;
+    private final Inflater inflater = new Inflater(true);
+    private final byte[] raw = new byte[BlockGzip.MAX_BLOCK_SIZE];
+    private final LRUCache<Long, Block> cache;
+
+    private BlockGzipIndex index = null;
+    private Block current = null;
+    private int pos = 0;
+    private boolean closed = false;
+
+    public SeekableBlockGzipInputStream(String filename) throws IOException {
+        this(new File(filename), DEFAULT_CACHE_SIZE);
+    }
+
+    public SeekableBlockGzipInputStream(File file) throws IOException {
+        this(file, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param file
+     * @param cacheSize - the number of decompressed blocks to keep in memory
+     * @throws IOException
+     */
+    public SeekableBlockGzipInputStream(File file, int cacheSize) throws IOException {
+        this.reader = new PositionalReader(file);
+        this.length = reader.length();
+        this.cache = new LRUCache<Long, Block>(cacheSize, 1.0);
+        if (length > 0) {
+            seek(0);
+        }
+    }
+
+    /**
+     * Set an index for the file. This is needed for seekUncompressed().
+     */
+    public void setIndex(BlockGzipIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Move to a virtual offset
+     */
+    public void seek(long voffset) throws IOException {
+        ensureOpen();
+        long coffset = voffset >>> 16;
+        int offset = (int) (voffset & 0xFFFF);
+
+        Block block = loadBlock(coffset);
+        if (block == null ? offset > 0 : offset > block.len) {
+            throw new IOException("Invalid virtual offset: "+voffset);
+        }
+        current = block;
+        pos = offset;
+    }
+
+    /**
+     * Move to a position in the uncompressed data (requires an index)
+     */
+    public void seekUncompressed(long uoffset) throws IOException {
+        if (index == null) {
+            throw new IOException("An index is required to seek to an uncompressed position");
+        }
+        seek(index.getVirtualOffset(uoffset));
+    }
+
+    /**
+     * @return the virtual offset of the current position
+     */
+    public long getVirtualOffset() {
+        if (current == null) {
+            return length << 16;
+        }
+        return (current.coffset << 16) | pos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        return current.data[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int n = Math.min(len, current.len - pos);
+        System.arraycopy(current.data, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (current == null) {
+            return 0;
+        }
+        return current.len - pos;
+    }
+
+    private boolean ensureData() throws IOException {
+        ensureOpen();
+        while (current != null && pos >= current.len) {
+            current = loadBlock(current.coffset + current.blockSize);
+            pos = 0;
+        }
+        return current != null;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Attempted to read from closed stream!");
+        }
+    }
+
+    /**
+     * Returns the (decompressed) block at coffset, or null if coffset is the end of the file.
+     */
+    private Block loadBlock(long coffset) throws IOException {
+        if (coffset >= length) {
+            if (coffset > length) {
+                throw new IOException("Invalid block offset: "+coffset);
+            }
+            return null;
+        }
+
+        Block block = cache.get(coffset);
+        if (block != null) {
+            return block;
+        }
+
+        int n = (int) Math.min(raw.length, length - coffset);
+        reader.readRawBytes(coffset, raw, 0, n);
+        int blockSize = BlockGzip.blockSize(raw, n);
+        if (blockSize > n) {
+            throw new IOException("Truncated block-gzip block at offset: "+coffset);
+        }
+
+        byte[] data = new byte[BlockGzip.MAX_BLOCK_SIZE];
+        int len = BlockGzip.inflate(raw, blockSize, inflater, data);
+        block = new Block(coffset, blockSize, data, len);
+        cache.put(coffset, block);
+        return block;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        cache.clear();
+        inflater.end();
+        reader.close();
+    }
+}
@@ -0,0 +1,89 @@
+package io.compgen.common.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A Reader for single byte charsets (US-ASCII and ISO-8859-1/Latin-1). Each byte is one
+ * char, so bytes are copied straight to chars instead of going through a CharsetDecoder
+ * (as InputStreamReader does).
+ *
+ * For US-ASCII, bytes above 0x7F are replaced with U+FFFD (the same as InputStreamReader).
+ */
+public class SingleByteReader extends Reader {
+    public static final int DEFAULT_BUFFERSIZE = 64*1024;
+
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final InputStream in;
+    private final boolean ascii;
+    private final byte[] buf;
+
+    public SingleByteReader(InputStream in, Charset charset) {
+        this(in, charset, DEFAULT_BUFFERSIZE);
+    }
+
+    public SingleByteReader(InputStream in, Charset charset, int bufferSize) {
+        if (!isSupported(charset)) {
+            throw new IllegalArgumentException("Unsupported charset: "+charset);
+        }
+        this.in = in;
+        this.ascii = charset.equals(StandardCharsets.US_ASCII);
+        this.buf = new byte[bufferSize];
+    }
+
+    /**
+     * @return true if the charset is US-ASCII or ISO-8859-1
+     */
+    public static boolean isSupported(Charset charset) {
+        return charset.equals(StandardCharsets.US_ASCII) || charset.equals(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns a SingleByteReader if the charset is supported, otherwise an InputStreamReader.
+     */
+    public static Reader newReader(InputStream in, Charset charset) {
+        if (isSupported(charset)) {
+            return new SingleByteReader(in, charset);
+        }
+        return new InputStreamReader(in, charset);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int n = in.read(buf, 0, Math.min(len, buf.length));
+        if (n <= 0) {
+            return n;
+        }
+        if (ascii && !isAscii(buf, n)) {
+            for (int i=0; i<n; i++) {
+                byte b = buf[i];
+                cbuf[off + i] = (b >= 0) ? (char) b : REPLACEMENT;
+            }
+        } else {
+            // Latin-1 Strings are stored as bytes, so this is two (intrinsic) array copies
+            new String(buf, 0, n, StandardCharsets.ISO_8859_1).getChars(0, n, cbuf, off);
+        }
+        return n;
+    }
+
+    private static boolean isAscii(byte[] buf, int len) {
+        int acc = 0;
+        for (int i=0; i<len; i++) {
+            acc |= buf[i];
+        }
+        return acc >= 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,319 @@
+package io.compgen.common.io;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encode/decode variable length integers directly to/from byte arrays and ByteBuffers.
+ *
+ * Varints are stored 7 bits at a time (least significant group first), with the high
+ * bit set when more bytes follow. This is the same format as DataIO.readVarInt and
+ * DataIO.writeVarInt, but values can use all 64 bits (up to 10 bytes).
+ *
+ * Signed values can be stored with zigzag encoding, so small negative numbers are also
+ * small varints.
+ *
+ * Sorted sequences of longs can be stored in a block-packed format (packSorted). In this
+ * format, values are delta-encoded in blocks of PACKED_BLOCK_SIZE. Each block starts with
+ * the first value (as a zigzag varint delta from the last value of the previous block),
+ * followed by a byte with the bit width of the largest delta in the block, and then the
+ * remaining deltas bit-packed at that width (little-endian).
+ *
+ *   varint count
+ *   [blocks]
+ *     zigzag varint first value (delta from the previous block)
+ *     byte bit width (w)
+ *     byte[ceil(w * (n-1) / 8)] packed deltas
+ */
+public class VarIntCodec {
+    public static final int MAX_VARINT_SIZE = 10;
+    public static final int PACKED_BLOCK_SIZE = 128;
+
+    public static long zigzagEncode(long val) {
+        return (val << 1) ^ (val >> 63);
+    }
+
+    public static long zigzagDecode(long val) {
+        return (val >>> 1) ^ -(val & 1);
+    }
+
+    /**
+     * Write a varint into buf at off
+     * @return the offset after the varint
+     */
+    public static int putVarInt(byte[] buf, int off, long val) {
+        while ((val & ~0x7FL) != 0) {
+            buf[off++] = (byte) ((val & 0x7F) | 0x80);
+            val = val >>> 7;
+        }
+        buf[off++] = (byte) val;
+        return off;
+    }
+
+    public static void putVarInt(ByteBuffer buf, long val) {
+        while ((val & ~0x7FL) != 0) {
+            buf.put((byte) ((val & 0x7F) | 0x80));
+            val = val >>> 7;
+        }
+        buf.put((byte) val);
+    }
+
+    public static void putSignedVarInt(ByteBuffer buf, long val) {
+        putVarInt(buf, zigzagEncode(val));
+    }
+
+    public static long getVarInt(ByteBuffer buf) {
+        long acc = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get();
+            acc |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return acc;
+            }
+        }
+        throw new IllegalArgumentException("Invalid varint (too long)");
+    }
+
+    public static long getSignedVarInt(ByteBuffer buf) {
+        return zigzagDecode(getVarInt(buf));
+    }
+
+    /**
+     * Returns the number of bytes needed to store val as a varint
+     */
+    public static int varIntSize(long val) {
+        int size = 1;
+        while ((val & ~0x7FL) != 0) {
+            val = val >>> 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Write len values from vals as varints into dest, starting at destOff.
+     * dest must have room for (up to) len * MAX_VARINT_SIZE bytes.
+     *
+     * @return the offset in dest after the last varint
+     */
+    public static int encodeVarInts(long[] vals, int off, int len, byte[] dest, int destOff) {
+        for (int i=off; i<off+len; i++) {
+            destOff = putVarInt(dest, destOff, vals[i]);
+        }
+        return destOff;
+    }
+
+    /**
+     * Read len varints from src (starting at srcOff) into dest.
+     *
+     * @return the offset in src after the last varint
+     */
+    public static int decodeVarInts(byte[] src, int srcOff, long[] dest, int off, int len) {
+        for (int i=off; i<off+len; i++) {
+            long acc = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (shift >= 64) {
+                    throw new IllegalArgumentException("Invalid varint (too long)");
+                }
+                b = src[srcOff++];
+                acc |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            dest[i] = acc;
+        }
+        return srcOff;
+    }
+
+    public static void encodeVarInts(long[] vals, int off, int len, ByteBuffer dest) {
+        for (int i=off; i<off+len; i++) {
+            putVarInt(dest, vals[i]);
+        }
+    }
+
+    public static void decodeVarInts(ByteBuffer src, long[] dest, int off, int len) {
+        if (src.hasArray()) {
+            int pos = decodeVarInts(src.array(), src.arrayOffset() + src.position(), dest, off, len);
+            src.position(pos - src.arrayOffset());
+            return;
+        }
+        for (int i=off; i<off+len; i++) {
+            dest[i] = getVarInt(src);
+        }
+    }
+
+    public static void encodeSignedVarInts(long[] vals, int off, int len, ByteBuffer dest) {
+        for (int i=off; i<off+len; i++) {
+            putVarInt(dest, zigzagEncode(vals[i]));
+        }
+    }
+
+    public static void decodeSignedVarInts(ByteBuffer src, long[] dest, int off, int len) {
+        decodeVarInts(src, dest, off, len);
+        for (int i=off; i<off+len; i++) {
+            dest[i] = zigzagDecode(dest[i]);
+        }
+    }
+
+    /**
+     * The largest number of bytes packSorted could need for len values
+     *
+     * @throws IllegalArgumentException if that is more than a ByteBuffer can hold
+     */
+    public static int maxPackedSize(int len) {
+        if (len < 0) {
+            throw new IllegalArgumentException("Invalid length: "+len);
+        }
+        long blocks = ((long) len + PACKED_BLOCK_SIZE - 1) / PACKED_BLOCK_SIZE;
+        long size = MAX_VARINT_SIZE + (blocks * (MAX_VARINT_SIZE + 1)) + (len * 8L);
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many values to pack: "+len+" ("+size+" bytes)");
+        }
+        return (int) size;
+    }
+
+    /**
+     * Write a sorted (ascending) sequence of values in the block-packed delta format.
+     *
+     * @throws IllegalArgumentException if the values aren't sorted
+     */
+    public static void packSorted(long[] vals, int off, int len, ByteBuffer dest) {
+        putVarInt(dest, len);
+
+        long prev = 0;
+        for (int start = off; start < off + len; start += PACKED_BLOCK_SIZE) {
+            int end = Math.min(start + PACKED_BLOCK_SIZE, off + len);
+
+            putVarInt(dest, zigzagEncode(vals[start] - prev));
+
+            long maxDelta = 0;
+            for (int i=start+1; i<end; i++) {
+                if (vals[i] < vals[i-1]) {
+                    throw new IllegalArgumentException("Values must be sorted (index: "+i+")");
+                }
+                maxDelta |= vals[i] - vals[i-1];
+            }
+            int width = 64 - Long.numberOfLeadingZeros(maxDelta);
+            dest.put((byte) width);
+
+            if (width > 0) {
+                long acc = 0;
+                int bits = 0;
+                for (int i=start+1; i<end; i++) {
+                    long delta = vals[i] - vals[i-1];
+                    acc |= delta << bits;
+                    if (bits + width < 64) {
+                        bits += width;
+                    } else {
+                        putLE(dest, acc, 8);
+                        int consumed = 64 - bits;
+                        acc = (consumed == 64) ? 0 : delta >>> consumed;
+                        bits = width - consumed;
+                    }
+                }
+                if (bits > 0) {
+                    putLE(dest, acc, (bits + 7) / 8);
+                }
+            }
+            prev = vals[end - 1];
+        }
+    }
+
+    public static byte[] packSorted(long[] vals) {
+        ByteBuffer buf = ByteBuffer.allocate(maxPackedSize(vals.length));
+        packSorted(vals, 0, vals.length, buf);
+        byte[] out = new byte[buf.position()];
+        buf.flip();
+        buf.get(out);
+        return out;
+    }
+
+    /**
+     * Read the number of values stored in a block-packed sequence (without moving the buffer).
+     */
+    public static int packedCount(ByteBuffer src) {
+        return (int) getVarInt(src.duplicate());
+    }
+
+    /**
+     * Read a block-packed sequence into dest (starting at off). dest must have room for
+     * packedCount(src) values.
+     *
+     * @return the number of values read
+     */
+    public static int unpackSorted(ByteBuffer src, long[] dest, int off) {
+        int len = (int) getVarInt(src);
+
+        long prev = 0;
+        for (int start = off; start < off + len; start += PACKED_BLOCK_SIZE) {
+            int end = Math.min(start + PACKED_BLOCK_SIZE, off + len);
+
+            long val = prev + zigzagDecode(getVarInt(src));
+            dest[start] = val;
+
+            int width = src.get() & 0xFF;
+            if (width > 64) {
+                throw new IllegalArgumentException("Invalid bit width: "+width);
+            }
+
+            if (width == 0) {
+                for (int i=start+1; i<end; i++) {
+                    dest[i] = val;
+                }
+            } else {
+                long mask = (width == 64) ? -1L : (1L << width) - 1;
+                int remaining = (int) (((long) width * (end - start - 1) + 7) / 8);
+                long acc = 0;
+                int avail = 0;
+                for (int i=start+1; i<end; i++) {
+                    long delta;
+                    if (avail >= width) {
+                        delta = acc & mask;
+                        acc = (width == 64) ? 0 : acc >>> width;
+                        avail -= width;
+                    } else {
+                        int n = Math.min(8, remaining);
+                        long next = getLE(src, n);
+                        remaining -= n;
+                        delta = (acc | (next << avail)) & mask;
+                        int fromNext = width - avail;
+                        acc = (fromNext == 64) ? 0 : next >>> fromNext;
+                        avail = (n * 8) - fromNext;
+                    }
+                    val += delta;
+                    dest[i] = val;
+                }
+            }
+            prev = dest[end - 1];
+        }
+        return len;
+    }
+
+    public static long[] unpackSorted(ByteBuffer src) {
+        long[] out = new long[packedCount(src)];
+        unpackSorted(src, out, 0);
+        return out;
+    }
+
+    public static long[] unpackSorted(byte[] src) {
+        return unpackSorted(ByteBuffer.wrap(src));
+    }
+
+    private static void putLE(ByteBuffer buf, long val, int bytes) {
+        for (int i=0; i<bytes; i++) {
+            buf.put((byte) (val >>> (i * 8)));
+        }
+    }
+
+    private static long getLE(ByteBuffer buf, int bytes) {
+        if (buf.remaining() < bytes) {
+            throw new BufferUnderflowException();
+        }
+        long val = 0;
+        for (int i=0; i<bytes; i++) {
+            val |= (long) (buf.get() & 0xFF) << (i * 8);
+        }
+        return val;
+    }
+}
@@ -0,0 +1,226 @@
+package io.compgen.common.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * This class wraps another outputstream and writes to it on a background thread. Data is
+ * written into large buffers, and filled buffers are handed to the background thread to be
+ * written to the parent stream. At most (buffers * bufferSize) bytes are held in memory;
+ * if the background thread falls behind, write() blocks until a buffer is free.
+ *
+ * If the parent stream compresses data (for example, a GZIPOutputStream), then the
+ * compression is also done on the background thread.
+ *
+ * Any exception from the parent stream is re-thrown (as an IOException) by the next call
+ * to write(), flush(), or close().
+ *
+ * This class is not thread-safe (it should only be written to by one thread).
+ */
+public class WriteBehindOutputStream extends OutputStream {
+    public static final int DEFAULT_BUFFERSIZE = 1024*1024;
+    public static final int DEFAULT_BUFFERS = 4;
+
+    private static class Buffer {
+        final byte[] data;
+        int len = 0;
+        boolean flush = false;
+        boolean close = false;
+
+        Buffer(int size) {
+            this.data = new byte[size];
+        }
+    }
+
+    private final OutputStream parent;
+    private final int buffers;
+    private final BlockingQueue<Buffer> empty;
+    private final BlockingQueue<Buffer> filled;
+    private final Thread thread;
+
+    private Buffer current;
+    private volatile Throwable error = null;
+    private boolean closed = false;
+
+    public WriteBehindOutputStream(OutputStream parent) {
+        this(parent, DEFAULT_BUFFERSIZE, DEFAULT_BUFFERS);
+    }
+
+    /**
+     * @param parent
+     * @param bufferSize - size of each buffer
+     * @param buffers - number of buffers (at least 2)
+     */
+    public WriteBehindOutputStream(OutputStream parent, int bufferSize, int buffers) {
+        if (buffers < 2) {
+            throw new IllegalArgumentException("At least two buffers are required");
+        }
+        this.parent = parent;
+        this.buffers = buffers;
+        this.empty = new ArrayBlockingQueue<Buffer>(buffers);
+        this.filled = new ArrayBlockingQueue<Buffer>(buffers);
+        for (int i=1; i<buffers; i++) {
+            empty.add(new Buffer(bufferSize));
+        }
+        this.current = new Buffer(bufferSize);
+
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "WriteBehindOutputStream");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Background thread: write filled buffers to the parent stream until it is closed.
+     * After an error, buffers are discarded (but still returned so the writer doesn't block).
+     */
+    private void writeLoop() {
+        boolean done = false;
+        while (!done) {
+            Buffer buf;
+            try {
+                buf = filled.take();
+            } catch (InterruptedException e) {
+                closeParent();
+                return;
+            }
+            done = buf.close;
+            try {
+                if (error == null) {
+                    parent.write(buf.data, 0, buf.len);
+                    if (buf.flush) {
+                        parent.flush();
+                    }
+                }
+            } catch (Throwable t) {
+                if (error == null) {
+                    error = t;
+                }
+            } finally {
+                if (buf.close) {
+                    // always close the parent (even if the last write failed)
+                    closeParent();
+                }
+                buf.len = 0;
+                buf.flush = false;
+                buf.close = false;
+                empty.add(buf);
+            }
+        }
+    }
+
+    private void closeParent() {
+        try {
+            parent.close();
+        } catch (Throwable t) {
+            if (error == null) {
+                error = t;
+            }
+        }
+    }
+
+    private void checkError() throws IOException {
+        Throwable t = error;
+        if (t != null) {
+            throw new IOException(t.getMessage(), t);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Attempted to write to closed stream!");
+        }
+        checkError();
+    }
+
+    /**
+     * Hand the current buffer to the background thread and get an empty one.
+     */
+    private void send(boolean flush, boolean close) throws IOException {
+        current.flush = flush;
+        current.close = close;
+        try {
+            filled.put(current);
+            current = close ? null : empty.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (current.len == current.data.length) {
+            send(false, false);
+        }
+        current.data[current.len++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (current.len == current.data.length) {
+                send(false, false);
+            }
+            int n = Math.min(len, current.data.length - current.len);
+            System.arraycopy(b, off, current.data, current.len, n);
+            current.len += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Writes all buffered data to the parent stream and flushes it. This blocks until the
+     * background thread has caught up.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        send(true, false);
+
+        // Once all of the other buffers are back, everything sent has been written.
+        Buffer[] tmp = new Buffer[buffers - 1];
+        try {
+            for (int i=0; i<tmp.length; i++) {
+                tmp[i] = empty.take();
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } finally {
+            for (Buffer buf: tmp) {
+                if (buf != null) {
+                    empty.add(buf);
+                }
+            }
+        }
+        checkError();
+    }
+
+    /**
+     * Writes all buffered data and closes the parent stream. This blocks until the
+     * background thread has finished.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        send(false, true);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        checkError();
+    }
+}